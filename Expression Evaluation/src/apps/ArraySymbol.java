@@ -1,5 +1,9 @@
 package apps;
 
+import structures.DirectIntArray;
+import structures.IntArray;
+import structures.SparseIntArray;
+
 /**
  * This class encapsulates a (name, array of integer values) pair for an array variable. 
  * The name is a sequence of one or more letters. 
@@ -9,16 +13,37 @@ package apps;
  */
 public class ArraySymbol {
 	
+	/**
+	 * Arrays shorter than this are always held in values
+	 */
+	public static final int SPARSE_MIN_LENGTH = 1 << 20;
+	
+	/**
+	 * A long array is held sparse if no more than one in this many elements are set
+	 */
+	public static final int SPARSE_MAX_FILL = 4;
+	
+	/**
+	 * Dense arrays at least this long are held off the heap
+	 */
+	public static final int DIRECT_MIN_LENGTH = 1 << 24;
+	
 	/**
 	 * Name, sequence of letters
 	 */
 	public String name;
 	
 	/**
-	 * Array of integer values
+	 * Array of integer values, or null if they are held in store
 	 */
 	public int[] values;
 	
+	/**
+	 * Values of a long array that are not held in values: a SparseIntArray if few 
+	 * elements are set, or a DirectIntArray; null if values holds them
+	 */
+	public IntArray store;
+	
 	/**
 	 * Initializes this symbol with given name, and sets values to null.
 	 * 
@@ -29,10 +54,97 @@ public class ArraySymbol {
         values = null;
     }
 	
+	/**
+	 * Makes this an all-zero array of the given length, with no elements to be set.
+	 * 
+	 * @param length Length of the array
+	 */
+	public void allocate(int length) {
+		allocate(length, 0);
+	}
+	
+	/**
+	 * Makes this an all-zero array of the given length, to be filled in with set. 
+	 * Short arrays are held in values. For long ones the backing is chosen here, from 
+	 * the number of elements to be set, so that a dense array never passes through a 
+	 * sparse table on the heap: sparse, with a table that will not grow, if few are 
+	 * to be set, and dense otherwise, off the heap if very long.
+	 * 
+	 * @param length Length of the array
+	 * @param pairs Number of elements that will be set, or more
+	 */
+	public void allocate(int length, int pairs) {
+		if (length < SPARSE_MIN_LENGTH) {
+			values = new int[length];
+			store = null;
+		} else if (pairs <= length / SPARSE_MAX_FILL) {
+			values = null;
+			store = new SparseIntArray(length, pairs);
+		} else if (length < DIRECT_MIN_LENGTH) {
+			values = new int[length];
+			store = null;
+		} else {
+			values = null;
+			store = new DirectIntArray(length);
+		}
+	}
+	
+	/**
+	 * Returns the number of elements in the array.
+	 * 
+	 * @return Length of the array
+	 */
+	public int length() {
+		return values != null ? values.length : store.length();
+	}
+	
+	/**
+	 * Returns an element of the array, wherever it is held.
+	 * 
+	 * @param index Index of the element
+	 * @return Element
+	 * @throws ArrayIndexOutOfBoundsException If index is out of range
+	 */
+	public int get(int index) {
+		return values != null ? values[index] : store.get(index);
+	}
+	
+	/**
+	 * Sets an element of the array. A sparse array is made dense if it fills up, which 
+	 * happens only if more elements are set than were given to allocate.
+	 * 
+	 * @param index Index of the element
+	 * @param value New value
+	 * @throws ArrayIndexOutOfBoundsException If index is out of range
+	 */
+	public void set(int index, int value) {
+		if (values != null) {
+			values[index] = value;
+			return;
+		}
+		store.set(index, value);
+		if (store instanceof SparseIntArray) {
+			SparseIntArray sparse = (SparseIntArray)store;
+			if (sparse.size() > sparse.length() / SPARSE_MAX_FILL) {
+				if (sparse.length() < DIRECT_MIN_LENGTH) {
+					values = new int[sparse.length()];
+					sparse.copyTo(values);
+					store = null;
+				} else {
+					store = new DirectIntArray(sparse.length());
+					sparse.copyTo(store);
+				}
+			}
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
+		if (store != null) {
+			return name + "=" + store;
+		}
 		if (values == null || values.length == 0) {
 			return name + "=[ ]";
 		}
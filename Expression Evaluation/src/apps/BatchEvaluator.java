@@ -0,0 +1,193 @@
+package apps;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates a file of expressions, one per line, against one symbol values file, and
+ * writes the value of each to an output file, in the same order. The symbol values
+ * file is read once, and every expression takes its values from that copy. Expressions
+ * are spread over a pool of worker threads, each of which takes the next unevaluated
+ * line until none are left, and the time taken by each expression is kept so that the
+ * spread of latencies can be reported along with the overall throughput.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class BatchEvaluator {
+
+	/**
+	 * Every symbol in the symbol values file, or an empty table if there is none
+	 */
+	SymbolTable symbols;
+
+	/**
+	 * Number of worker threads
+	 */
+	int threads;
+
+	/**
+	 * Nanoseconds taken by each expression of the last batch, by line
+	 */
+	public long[] latencies;
+
+	/**
+	 * Nanoseconds taken by the whole of the last batch
+	 */
+	public long elapsed;
+
+	/**
+	 * Reads a symbol values file for evaluating batches with.
+	 *
+	 * @param file Name of the symbol values file, or null or empty for none
+	 * @param threads Number of worker threads
+	 * @throws IOException If the symbol values file cannot be read or is malformed
+	 * @throws IllegalArgumentException If threads is not positive
+	 */
+	public BatchEvaluator(String file, int threads)
+	throws IOException {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+		}
+		this.threads = threads;
+		symbols = new SymbolTable(new ArrayList<ScalarSymbol>(), new ArrayList<ArraySymbol>());
+		if (file != null && file.length() != 0) {
+			SymbolValuesReader.loadAll(file, symbols);
+		}
+		latencies = new long[0];
+	}
+
+	/**
+	 * Evaluates a batch of expressions. The result for each line is the value of its
+	 * expression, "error: " and a message if it is malformed or reads outside an
+	 * array, or an empty string if the line is blank.
+	 *
+	 * @param lines Expressions
+	 * @return Result for each line, in the same order
+	 * @throws InterruptedException If interrupted while waiting for the workers
+	 */
+	public String[] evaluate(final List<String> lines)
+	throws InterruptedException {
+		final String[] results = new String[lines.size()];
+		final long[] times = new long[lines.size()];
+		final AtomicInteger next = new AtomicInteger();
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int t=0; t < threads; t++) {
+			pool.execute(new Runnable() {
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < results.length) {
+						long begin = System.nanoTime();
+						results[i] = evaluate(lines.get(i));
+						times[i] = System.nanoTime() - begin;
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+			// still running
+		}
+		elapsed = System.nanoTime() - start;
+		latencies = times;
+		return results;
+	}
+
+	/**
+	 * Evaluates one expression with the shared symbol values.
+	 */
+	private String evaluate(String line) {
+		if (line.trim().length() == 0) {
+			return "";
+		}
+		try {
+			Expression expr = new Expression(line);
+			expr.buildSymbols();
+			expr.symbols.copyValues(symbols);
+			return String.valueOf(expr.evaluate());
+		} catch (RuntimeException e) {
+			return "error: " + e.getMessage();
+		} catch (StackOverflowError e) {
+			return "error: expression is nested too deeply";
+		}
+	}
+
+	/**
+	 * Returns a latency of the last batch, by nearest rank.
+	 *
+	 * @param p Percentile, from 0 to 100
+	 * @return Nanoseconds within which p percent of the expressions were evaluated,
+	 *         or 0 if the batch was empty
+	 */
+	public long percentile(double p) {
+		if (latencies.length == 0) {
+			return 0;
+		}
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		int rank = (int)Math.ceil(p / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+
+	/**
+	 * @param args Optional -threads N, which defaults to the number of processors;
+	 *        then the expressions file, the symbol values file and the output file
+	 */
+	public static void main(String[] args)
+	throws IOException, InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ArrayList<String> files = new ArrayList<String>();
+		for (int i=0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i+1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				files.add(args[i]);
+			}
+		}
+		if (files.size() != 3) {
+			System.err.println("Usage: BatchEvaluator [-threads N] expressions-file symbols-file output-file");
+			System.exit(1);
+		}
+
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(files.get(0)));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			in.close();
+		}
+
+		BatchEvaluator batch = new BatchEvaluator(files.get(1), threads);
+		String[] results = batch.evaluate(lines);
+		PrintWriter out = new PrintWriter(new FileWriter(files.get(2)));
+		try {
+			for (String result: results) {
+				out.println(result);
+			}
+		} finally {
+			out.close();
+		}
+
+		double seconds = batch.elapsed / 1e9;
+		System.out.println(String.format(Locale.ROOT, "%d expressions on %d threads in %.3f s, %.0f expressions/s",
+				results.length, threads, seconds, results.length / seconds));
+		System.out.println(String.format(Locale.ROOT, "Latency (us): p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+				batch.percentile(50) / 1e3, batch.percentile(90) / 1e3, batch.percentile(99) / 1e3,
+				batch.percentile(99.9) / 1e3, batch.percentile(100) / 1e3));
+	}
+}
@@ -0,0 +1,93 @@
+package apps;
+
+/**
+ * Values of the symbols of a CompiledExpression for one evaluation, or for a series of
+ * evaluations on one thread. Each thread evaluating a shared CompiledExpression uses
+ * bindings of its own.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class Bindings {
+
+	/**
+	 * Expression these bindings belong to
+	 */
+	final CompiledExpression owner;
+
+	/**
+	 * Value of each scalar, by slot
+	 */
+	int[] scalars;
+
+	/**
+	 * Values of each array, by slot
+	 */
+	int[][] arrays;
+
+	/**
+	 * Initializes bindings holding the default values of an expression.
+	 *
+	 * @param owner Expression the bindings belong to
+	 */
+	Bindings(CompiledExpression owner) {
+		this.owner = owner;
+		scalars = new int[owner.scalarDefaults.length];
+		arrays = new int[owner.arrayDefaults.length][];
+		reset();
+	}
+
+	/**
+	 * Sets every symbol back to its default value. Arrays get the default array
+	 * objects, which must not be changed in place.
+	 */
+	public void reset() {
+		System.arraycopy(owner.scalarDefaults, 0, scalars, 0, scalars.length);
+		System.arraycopy(owner.arrayDefaults, 0, arrays, 0, arrays.length);
+	}
+
+	/**
+	 * Tells whether every array has values of its own, rather than being read from the
+	 * store of a default array.
+	 *
+	 * @return True if no array is null
+	 */
+	boolean onHeap() {
+		for (int[] values: arrays) {
+			if (values == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the value of a scalar.
+	 *
+	 * @param name Scalar name
+	 * @param value Value
+	 * @throws IllegalArgumentException If the expression has no such scalar
+	 */
+	public void setScalar(String name, int value) {
+		Integer slot = owner.scalarSlots.get(name);
+		if (slot == null) {
+			throw new IllegalArgumentException("unknown scalar " + name);
+		}
+		scalars[slot] = value;
+	}
+
+	/**
+	 * Sets the values of an array. The array is used as it is, not copied.
+	 *
+	 * @param name Array name
+	 * @param values Values
+	 * @throws IllegalArgumentException If the expression has no such array
+	 */
+	public void setArray(String name, int[] values) {
+		Integer slot = owner.arraySlots.get(name);
+		if (slot == null) {
+			throw new IllegalArgumentException("unknown array " + name);
+		}
+		arrays[slot] = values;
+	}
+}
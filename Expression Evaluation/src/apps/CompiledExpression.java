@@ -0,0 +1,151 @@
+package apps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable compiled expression, which can be evaluated by any number of threads at
+ * once without locking. Nothing about it changes after it is made by Expression.freeze:
+ * symbol values are passed in a Bindings object for each call instead of being kept in
+ * the expression, and evaluation keeps all intermediate values on the calling thread.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public final class CompiledExpression {
+
+	/**
+	 * Expression, as given
+	 */
+	final String text;
+
+	/**
+	 * Compiled tree, never optimized, so that evaluation writes nothing into its nodes
+	 */
+	final ExpressionNode program;
+
+	/**
+	 * Generated class for the expression, or null to walk the tree
+	 */
+	final Formula formula;
+
+	/**
+	 * Slot of each scalar name
+	 */
+	final Map<String,Integer> scalarSlots;
+
+	/**
+	 * Slot of each array name
+	 */
+	final Map<String,Integer> arraySlots;
+
+	/**
+	 * Scalar values that new bindings start with, by slot
+	 */
+	final int[] scalarDefaults;
+
+	/**
+	 * Array values that new bindings start with, by slot; copies that are shared by all
+	 * bindings and never changed
+	 */
+	final int[][] arrayDefaults;
+
+	/**
+	 * Compiles an expression whose symbols have been built, taking a copy of the
+	 * current symbol values as the defaults for new bindings. Arrays held in stores,
+	 * which may be huge, are shared rather than copied, and must not be changed
+	 * afterwards.
+	 *
+	 * @param expr Expression with its symbols built
+	 * @throws IllegalArgumentException If the expression is malformed
+	 */
+	CompiledExpression(Expression expr) {
+		text = expr.expr;
+		formula = expr.formula;
+
+		// a private copy of the symbols, in the same slots, for the tree to read stores from
+		SymbolTable symbols = new SymbolTable(new ArrayList<ScalarSymbol>(), new ArrayList<ArraySymbol>());
+		for (ScalarSymbol ss: expr.scalars) {
+			symbols.scalars.get(symbols.addScalar(ss.name)).value = ss.value;
+		}
+		for (ArraySymbol as: expr.arrays) {
+			ArraySymbol copy = symbols.arrays.get(symbols.addArray(as.name));
+			copy.values = as.values == null ? null : as.values.clone();
+			copy.store = as.store;
+		}
+		program = new ExpressionParser(expr.tokens, symbols).parse();
+		scalarSlots = Collections.unmodifiableMap(symbols.scalarSlots);
+		arraySlots = Collections.unmodifiableMap(symbols.arraySlots);
+		symbols.refresh();
+		scalarDefaults = symbols.scalarValues;
+		arrayDefaults = symbols.arrayValues;
+	}
+
+	/**
+	 * Makes new bindings holding the default symbol values, for one thread to fill in
+	 * and pass to evaluate.
+	 *
+	 * @return New bindings
+	 */
+	public Bindings bindings() {
+		return new Bindings(this);
+	}
+
+	/**
+	 * Evaluates the expression with the given symbol values. Any number of threads may
+	 * call this at once, as long as they do not share bindings while changing them.
+	 *
+	 * @param bindings Symbol values, made by bindings() of this expression
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If the bindings belong to another expression
+	 */
+	public float evaluate(Bindings bindings) {
+		if (bindings.owner != this) {
+			throw new IllegalArgumentException("bindings are for another expression");
+		}
+		if (formula != null && bindings.onHeap()) {
+			return formula.evaluate(bindings.scalars, bindings.arrays);
+		}
+		return program.evaluate(bindings.scalars, bindings.arrays);
+	}
+
+	/**
+	 * Evaluates the expression in double arithmetic with the given symbol values, as
+	 * Expression.evaluateDouble does. Safe to call from any number of threads at once.
+	 *
+	 * @param bindings Symbol values, made by bindings() of this expression
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If the bindings belong to another expression
+	 */
+	public double evaluateDouble(Bindings bindings) {
+		if (bindings.owner != this) {
+			throw new IllegalArgumentException("bindings are for another expression");
+		}
+		return program.evaluateDouble(bindings.scalars, bindings.arrays);
+	}
+
+	/**
+	 * Evaluates the expression in exact long arithmetic with the given symbol values,
+	 * as Expression.evaluateLong does. Safe to call from any number of threads at once.
+	 *
+	 * @param bindings Symbol values, made by bindings() of this expression
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If the bindings belong to another expression
+	 * @throws ArithmeticException If a result overflows a long, a divisor is zero, a
+	 *         constant is not a whole number or a subscript does not fit in an int
+	 */
+	public long evaluateLong(Bindings bindings) {
+		if (bindings.owner != this) {
+			throw new IllegalArgumentException("bindings are for another expression");
+		}
+		return program.evaluateLong(bindings.scalars, bindings.arrays);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return text;
+	}
+}
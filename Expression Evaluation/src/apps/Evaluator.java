@@ -1,15 +1,25 @@
 package apps;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.Scanner;
 
 public class Evaluator {
 
 	/**
-	 * @param args
+	 * Number of results kept by the cache
+	 */
+	static final int CACHE_CAPACITY = 256;
+
+	/**
+	 * @param args -nocache to evaluate every request anew
 	 */
 	public static void main(String[] args) throws IOException {
+		ExpressionCache cache = new ExpressionCache(CACHE_CAPACITY);
+		for (String arg: args) {
+			if (arg.equals("-nocache")) {
+				cache.setEnabled(false);
+			}
+		}
 		Scanner sc = new Scanner(System.in);
 		while (true) {
 			System.out.print("\nEnter the expression, or hit return to quit => ");
@@ -17,21 +27,13 @@ public class Evaluator {
 			if (line.length() == 0) {
 				break;
 			}
-			Expression expr = new Expression(line);
-			expr.buildSymbols();
-//			expr.printScalars();
-//			expr.printArrays();
+			String expr = line;
 
 			System.out.print("Enter symbol values file name, or hit return if no symbols => ");
 			line = sc.nextLine();
-			if (line.length() != 0) {
-				Scanner scfile = new Scanner(new File(line));
-				expr.loadSymbolValues(scfile);
-//				expr.printScalars();
-//				expr.printArrays();
-			}
-			System.out.println("Value of expression = " + expr.evaluate());
+			System.out.println("Value of expression = " + cache.evaluate(expr, line));
 		}
+		System.out.println("Cache: " + cache);
 		sc.close();
 	}
 }
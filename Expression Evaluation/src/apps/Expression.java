@@ -2,9 +2,11 @@ package apps;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.*;
 
-import structures.Stack;
+import structures.CharStack;
+import structures.FloatStack;
 
 public class Expression {
 
@@ -22,6 +24,97 @@ public class Expression {
 	 * Array symbols in the expression
 	 */
 	ArrayList<ArraySymbol> arrays;
+	
+	/**
+	 * Slot index of the scalars and arrays lists
+	 */
+	SymbolTable symbols;
+	
+	/**
+	 * Tokens of the expression, read by buildSymbols, with every name bound to its slot
+	 */
+	ExpressionTokens tokens;
+	
+	/**
+	 * Expression without whitespace, walked by the string evaluator; null until the 
+	 * string evaluator first runs, and expr itself is never changed
+	 */
+	String stripped;
+	
+	/**
+	 * Symbol found at each position of the stripped expression by the string evaluator, 
+	 * as returned by resolveSymbol, or UNKNOWN_SYMBOL where a number has been parsed; 
+	 * 0 where nothing has been resolved
+	 */
+	int[] symbolAt;
+	
+	/**
+	 * Value of the number starting at each position of the stripped expression, 
+	 * parsed the first time the string evaluator reaches it
+	 */
+	float[] numberAt;
+	
+	/**
+	 * Position of the matching closing bracket for each opening bracket of the stripped 
+	 * expression, computed once by the string evaluator
+	 */
+	int[] matchAt;
+	
+	/**
+	 * Marks a position of symbolAt that holds no known symbol
+	 */
+	static final int UNKNOWN_SYMBOL = Integer.MIN_VALUE;
+	
+	/**
+	 * Operand stack of the string evaluator, one per thread
+	 */
+	static final ThreadLocal<FloatStack> OPERANDS = new ThreadLocal<FloatStack>() {
+		protected FloatStack initialValue() { return new FloatStack(); }
+	};
+	
+	/**
+	 * Operator stack of the string evaluator, one per thread
+	 */
+	static final ThreadLocal<CharStack> OPERATORS = new ThreadLocal<CharStack>() {
+		protected CharStack initialValue() { return new CharStack(); }
+	};
+	
+	/**
+	 * Compiled form of the expression, built on the first evaluation
+	 */
+	ExpressionNode program;
+	
+	/**
+	 * Compiled form of the expression as parsed, before optimization, which the double 
+	 * and long modes evaluate because the optimizer folds constants in float arithmetic
+	 */
+	ExpressionNode compiled;
+	
+	/**
+	 * Shared nodes of the optimized program, children before parents; empty if the 
+	 * program has not been optimized
+	 */
+	ExpressionNode[] shared = new ExpressionNode[0];
+	
+	/**
+	 * Generated class for the program, used by evaluate when set by generate
+	 */
+	Formula formula;
+	
+	/**
+	 * Dependency tracking of the program for evaluateIncremental, set up on its first call
+	 */
+	IncrementalEvaluation incremental;
+	
+	/**
+	 * Lazy evaluation of the program for evaluateLazy, set up on its first call
+	 */
+	LazyEvaluation lazy;
+	
+	/**
+	 * Metrics of the work done on this expression, or null when they are off
+	 */
+	ExpressionMetrics metrics;
     
     /**
      * String containing all delimiters (characters other than variables and constants), 
@@ -45,35 +138,85 @@ public class Expression {
      * even if it appears more than once in the expression.
      * At this time, values for all variables are set to
      * zero - they will be loaded from a file in the loadSymbolValues method.
+     * The expression is read once, into tokens that compile reuses.
      */
     public void buildSymbols() {
     		/** COMPLETE THIS METHOD **/
+    	long start = metrics == null ? 0 : System.nanoTime();
     	scalars = new ArrayList<ScalarSymbol>();
     	arrays = new ArrayList<ArraySymbol>();
+    	symbols = new SymbolTable(scalars, arrays);
+    	symbols.metrics = metrics;
+    	program = null;
+    	compiled = null;
+    	shared = new ExpressionNode[0];
+    	formula = null;
+    	symbolAt = null;
+    	numberAt = null;
+    	matchAt = null;
     	
-    	String[] strings = expr.split("[\\s]|[+]|[/]|[-]|[]]|[*]|[(]|[)]|[\\d]");
-    	
-    	for(String x: strings){
-			if(x.length() == 0 || containsArray(arrays, x) || containsScalar(scalars, x))
-    			continue;
-    		else if(x.contains("[")){
-    			String temp = x;
-    			int endy = x.indexOf('[');
-    			do{    				
-    				if(temp.charAt(endy) == '[' && !(containsArray(arrays, temp.substring(0, endy))))
-    					arrays.add(new ArraySymbol(temp.substring(0,endy)));
-    				
-    				temp = temp.substring(endy+1);
-    				endy = temp.indexOf("[");
-    			}while(endy > 0 || temp.contains("["));
-    			if(temp.length() != 0 && !containsScalar(scalars, temp.substring(0)))
-    				scalars.add(new ScalarSymbol(temp.substring(0)));
+    	tokens = new ExpressionTokens(expr);
+    	long tokenized = metrics == null ? 0 : System.nanoTime();
+    	for (int i=0; i < tokens.count; i++) {
+    		if (tokens.kinds[i] == 's') {
+    			tokens.slots[i] = symbols.addScalar(tokens.name(i));
+    		} else if (tokens.kinds[i] == 'a') {
+    			tokens.slots[i] = symbols.addArray(tokens.name(i));
+    		}
+    	}
+    	if (metrics != null) {
+    		metrics.buildSymbolsCalls++;
+    		metrics.buildSymbolsNanos += System.nanoTime() - start;
+    		metrics.tokenizeNanos += tokenized - start;
+    		metrics.tokens = tokens.count;
+    		metrics.nestingDepth = 0;
+    		int depth = 0;
+    		for (int i=0; i < tokens.count; i++) {
+    			char kind = tokens.kinds[i];
+    			if (kind == '(' || kind == '[') {
+    				metrics.nestingDepth = Math.max(metrics.nestingDepth, ++depth);
+    			} else if (kind == ')' || kind == ']') {
+    				depth--;
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * Turns on metrics for this expression, if they are not on already. From now on, 
+     * every phase adds its time and counts to them.
+     * 
+     * @return Live metrics of this expression
+     */
+    public ExpressionMetrics enableMetrics() {
+    	if (metrics == null) {
+    		metrics = new ExpressionMetrics();
+    		if (symbols != null) {
+    			symbols.metrics = metrics;
     		}
-    		else
-    			scalars.add(new ScalarSymbol(x));
+    	}
+    	return metrics;
+    }
+    
+    /**
+     * Turns off metrics for this expression and drops the values gathered so far.
+     */
+    public void disableMetrics() {
+    	metrics = null;
+    	if (symbols != null) {
+    		symbols.metrics = null;
     	}
     }
     
+    /**
+     * Returns a copy of the current metrics.
+     * 
+     * @return Snapshot of the metrics, or null if they are off
+     */
+    public ExpressionMetrics metrics() {
+    	return metrics == null ? null : metrics.snapshot();
+    }
+    
     /**
      * Loads values for symbols in the expression
      * 
@@ -82,14 +225,13 @@ public class Expression {
      */
     public void loadSymbolValues(Scanner sc) 
     throws IOException {
+    	long start = metrics == null ? 0 : System.nanoTime();
         while (sc.hasNextLine()) {
             StringTokenizer st = new StringTokenizer(sc.nextLine().trim());
             int numTokens = st.countTokens();
             String sym = st.nextToken();
-            ScalarSymbol ssymbol = new ScalarSymbol(sym);
-            ArraySymbol asymbol = new ArraySymbol(sym);
-            int ssi = scalars.indexOf(ssymbol);
-            int asi = arrays.indexOf(asymbol);
+            int ssi = symbols.scalarSlot(sym);
+            int asi = symbols.arraySlot(sym);
             if (ssi == -1 && asi == -1) {
             	continue;
             }
@@ -97,81 +239,424 @@ public class Expression {
             if (numTokens == 2) { // scalar symbol
                 scalars.get(ssi).value = num;
             } else { // array symbol
-            	asymbol = arrays.get(asi);
-            	asymbol.values = new int[num];
+            	ArraySymbol asymbol = arrays.get(asi);
+            	asymbol.allocate(num, numTokens - 2);
                 // following are (index,val) pairs
                 while (st.hasMoreTokens()) {
                     String tok = st.nextToken();
                     StringTokenizer stt = new StringTokenizer(tok," (,)");
                     int index = Integer.parseInt(stt.nextToken());
                     int val = Integer.parseInt(stt.nextToken());
-                    asymbol.values[index] = val;              
+                    asymbol.set(index, val);              
                 }
             }
         }
+        if (metrics != null) {
+        	metrics.loadCalls++;
+        	metrics.loadNanos += System.nanoTime() - start;
+        }
+    }
+    
+    
+    /**
+     * Loads values for symbols in the expression from a file in the same format as 
+     * loadSymbolValues(Scanner), reading it through a file channel with a byte-level 
+     * parser. Use this for files with large arrays.
+     * 
+     * @param file Name of the symbol values file
+     * @throws IOException If the file cannot be read or is malformed
+     */
+    public void loadSymbolValues(String file) 
+    throws IOException {
+    	long start = metrics == null ? 0 : System.nanoTime();
+    	SymbolValuesReader.load(file, symbols);
+    	if (metrics != null) {
+    		metrics.loadCalls++;
+    		metrics.loadNanos += System.nanoTime() - start;
+    	}
+    }
+    
+    /**
+     * Compiles the tokens read by buildSymbols into a tree of nodes whose variables are 
+     * bound to the slots of the symbols. The string is not scanned again.
+     * 
+     * @throws IllegalArgumentException If the expression is malformed
+     */
+    public void compile() {
+    	long start = metrics == null ? 0 : System.nanoTime();
+    	program = new ExpressionParser(tokens, symbols).parse();
+    	compiled = program;
+    	shared = new ExpressionNode[0];
+    	formula = null;
+    	if (metrics != null) {
+    		metrics.compileCalls++;
+    		metrics.compileNanos += System.nanoTime() - start;
+    	}
+    }
+    
+    /**
+     * Makes an immutable copy of the compiled expression, which any number of threads 
+     * can evaluate at once, each with bindings of its own. The current symbol values 
+     * become the defaults of new bindings. If generate has been called, the copy uses 
+     * the same generated class. Nothing done to this Expression afterwards affects it.
+     * 
+     * @return Compiled expression
+     * @throws IllegalArgumentException If the expression is malformed
+     */
+    public CompiledExpression freeze() {
+    	return new CompiledExpression(this);
     }
     
+    /**
+     * Optimizes the compiled expression, compiling it first if needed. Constant 
+     * subexpressions are folded, and identical subexpressions are merged and computed 
+     * once per evaluation. Results are exactly the same as before optimization.
+     * 
+     * @return Optimizer, whose counters tell how many nodes were eliminated
+     */
+    public ExpressionOptimizer optimize() {
+    	if (program == null) {
+    		compile();
+    	}
+    	ExpressionOptimizer optimizer = new ExpressionOptimizer();
+    	program = optimizer.optimize(program);
+    	shared = optimizer.shared;
+    	formula = null;
+    	return optimizer;
+    }
     
     /**
-     * Evaluates the expression, using RECURSION to evaluate subexpressions and to evaluate array 
-     * subscript expressions.
+     * Generates a JVM class that computes the compiled expression, compiling it first if 
+     * needed, and makes evaluate use it instead of walking the tree. Call this after 
+     * optimize to generate the optimized program. If the class cannot be generated, for 
+     * instance because the expression is too large for one method, evaluate keeps 
+     * walking the tree.
+     * 
+     * @return True if a class was generated, false if evaluate falls back to the tree
+     */
+    public boolean generate() {
+    	if (program == null) {
+    		compile();
+    	}
+    	formula = FormulaGenerator.generate(program, shared);
+    	return formula != null;
+    }
+    
+    /**
+     * Computes the shared nodes of the optimized program for the current evaluation.
+     */
+    private void computeShared() {
+    	for (ExpressionNode n: shared) {
+    		n.memo = n.compute(symbols.scalarValues, symbols.arrayValues);
+    	}
+    }
+    
+    /**
+     * Evaluates the expression against the current symbol values, compiling it first
+     * if it has not been compiled yet.
      * 
      * @return Result of evaluation
      */
     public float evaluate() {
-    		/** COMPLETE THIS METHOD **/
-    		// following line just a placeholder for compilation
-    		expr = expr.replaceAll("\\s", "");
-    		return evaluate(expr, 0, expr.length()-1);
+    	if (program == null) {
+    		compile();
+    	}
+    	long start = metrics == null ? 0 : System.nanoTime();
+    	symbols.refresh();
+    	float result;
+    	if (formula != null && symbols.arraysOnHeap) {
+    		result = formula.evaluate(symbols.scalarValues, symbols.arrayValues);
+    	} else {
+    		computeShared();
+    		result = program.evaluate(symbols.scalarValues, symbols.arrayValues);
+    	}
+    	if (metrics != null) {
+    		metrics.evaluated(program, 1, System.nanoTime() - start);
+    	}
+    	return result;
+    }
+    
+    /**
+     * Evaluates the expression in double arithmetic against the current symbol values, 
+     * compiling it first if needed. Constants are read as doubles, and array subscripts 
+     * are truncated to int as in evaluate.
+     * 
+     * @return Result of evaluation
+     */
+    public double evaluateDouble() {
+    	if (program == null) {
+    		compile();
+    	}
+    	long start = metrics == null ? 0 : System.nanoTime();
+    	symbols.refresh();
+    	double result = compiled.evaluateDouble(symbols.scalarValues, symbols.arrayValues);
+    	if (metrics != null) {
+    		metrics.evaluated(compiled, 1, System.nanoTime() - start);
+    	}
+    	return result;
+    }
+    
+    /**
+     * Evaluates the expression in exact long integer arithmetic against the current 
+     * symbol values, compiling it first if needed. Nothing is converted to floating 
+     * point; division truncates toward zero, as long division does, and a result that 
+     * does not fit in a long is an error rather than being rounded or wrapped.
+     * 
+     * @return Result of evaluation
+     * @throws ArithmeticException If a result overflows a long, a divisor is zero, a 
+     *         constant is not a whole number or a subscript does not fit in an int
+     */
+    public long evaluateLong() {
+    	if (program == null) {
+    		compile();
+    	}
+    	long start = metrics == null ? 0 : System.nanoTime();
+    	symbols.refresh();
+    	long result = compiled.evaluateLong(symbols.scalarValues, symbols.arrayValues);
+    	if (metrics != null) {
+    		metrics.evaluated(compiled, 1, System.nanoTime() - start);
+    	}
+    	return result;
+    }
+    
+    /**
+     * Evaluates the expression lazily, compiling it first if needed: an operand of a 
+     * multiplication is skipped, array subscripts and all, when the other operand is 
+     * zero. This pays off for sums of terms scaled by scalars that are often zero. The 
+     * expression as parsed is evaluated, without optimization, since a shared node 
+     * would have to be computed before knowing whether it is needed.
+     * 
+     * @return Result of evaluation, which is zero for a product with a zero operand
+     *         even if the other operand is infinite or reads outside its array, and
+     *         may be 0 where evaluate gives -0
+     */
+    public float evaluateLazy() {
+    	if (program == null) {
+    		compile();
+    	}
+    	long start = metrics == null ? 0 : System.nanoTime();
+    	symbols.refresh();
+    	if (lazy == null || lazy.root != compiled) {
+    		lazy = new LazyEvaluation(compiled);
+    	}
+    	float result = lazy.evaluate(symbols.scalarValues, symbols.arrayValues);
+    	if (metrics != null) {
+    		// the work done depends on which operands are zero, so none is counted
+    		metrics.evaluated(null, 1, System.nanoTime() - start);
+    	}
+    	return result;
+    }
+    
+    /**
+     * Returns the counters of evaluateLazy, which tell how many operands it skipped.
+     * 
+     * @return Counters, or null if evaluateLazy has not been called since compiling
+     */
+    public LazyEvaluation lazyEvaluation() {
+    	return lazy != null && lazy.root == compiled ? lazy : null;
+    }
+    
+    /**
+     * Evaluates the expression, recomputing only the subexpressions that depend on 
+     * symbols changed since the last call, and reusing the cached values of all others. 
+     * A scalar counts as changed if its value differs, and an array if its values array 
+     * has been replaced; elements changed in place must be reported with symbolChanged. 
+     * The first call evaluates the whole expression.
+     * 
+     * @return Result of evaluation
+     */
+    public float evaluateIncremental() {
+    	if (program == null) {
+    		compile();
+    	}
+    	long start = metrics == null ? 0 : System.nanoTime();
+    	symbols.refresh();
+    	if (incremental == null || incremental.root != program) {
+    		incremental = new IncrementalEvaluation(program, scalars.size(), arrays.size());
+    	}
+    	float result = incremental.evaluate(symbols.scalarValues, symbols.arrayValues, symbols.arrayStores);
+    	if (metrics != null) {
+    		// only the changed paths are recomputed, so no work is counted
+    		metrics.evaluated(null, 1, System.nanoTime() - start);
+    	}
+    	return result;
+    }
+    
+    /**
+     * Tells evaluateIncremental that the values of a symbol have changed in a way it 
+     * cannot see, such as an element of an array assigned in place.
+     * 
+     * @param name Name of a scalar or array symbol
+     */
+    public void symbolChanged(String name) {
+    	if (incremental == null) {
+    		return;
+    	}
+    	int slot = symbols.scalarSlot(name);
+    	if (slot >= 0) {
+    		incremental.scalarChanged(slot);
+    	}
+    	slot = symbols.arraySlot(name);
+    	if (slot >= 0) {
+    		incremental.arrayChanged(slot);
+    	}
+    }
+    
+    /**
+     * Smallest subtree, in nodes, that evaluateParallel splits into parallel tasks
+     */
+    public static final int PARALLEL_THRESHOLD = 4096;
+    
+    /**
+     * Evaluates the expression in the common fork/join pool, evaluating independent 
+     * subexpressions of at least PARALLEL_THRESHOLD nodes in parallel. The result is 
+     * the same as that of evaluate.
+     * 
+     * @return Result of evaluation
+     */
+    public float evaluateParallel() {
+    	return evaluateParallel(ForkJoinPool.commonPool(), PARALLEL_THRESHOLD);
+    }
+    
+    /**
+     * Evaluates the expression in the given fork/join pool, evaluating independent 
+     * subexpressions of at least the given number of nodes in parallel. The result is 
+     * the same as that of evaluate.
+     * 
+     * @param pool Pool that runs the evaluation
+     * @param threshold Smallest subtree, in nodes, that is split into parallel tasks
+     * @return Result of evaluation
+     */
+    public float evaluateParallel(ForkJoinPool pool, int threshold) {
+    	if (program == null) {
+    		compile();
+    	}
+    	long start = metrics == null ? 0 : System.nanoTime();
+    	symbols.refresh();
+    	computeShared();
+    	float result = pool.invoke(new ExpressionTask(program, symbols.scalarValues, symbols.arrayValues, threshold));
+    	if (metrics != null) {
+    		metrics.evaluated(program, 1, System.nanoTime() - start);
+    	}
+    	return result;
+    }
+    
+    /**
+     * Number of rows evaluated together by evaluateBatch, small enough for the
+     * per-level work arrays to stay in cache
+     */
+    static final int BATCH_BLOCK = 1024;
+    
+    /**
+     * Evaluates the expression once for every row of the given columns. Symbols
+     * without a column use their current value in every row.
+     * 
+     * @param cols Columnar symbol values
+     * @return Result of evaluation for each row
+     */
+    public float[] evaluateBatch(SymbolColumns cols) {
+    	if (program == null) {
+    		compile();
+    	}
+    	long start = metrics == null ? 0 : System.nanoTime();
+    	symbols.refresh();
+    	cols.bind(symbols);
+    	float[] results = new float[cols.rows];
+    	float[] out = new float[BATCH_BLOCK];
+    	float[][] scratch = new float[program.height()][BATCH_BLOCK];
+    	for (int from = 0; from < cols.rows; from += BATCH_BLOCK) {
+    		int len = Math.min(BATCH_BLOCK, cols.rows - from);
+    		program.evaluate(cols, from, len, out, scratch, 0);
+    		System.arraycopy(out, 0, results, from, len);
+    	}
+    	if (metrics != null) {
+    		metrics.evaluated(program, cols.rows, System.nanoTime() - start);
+    	}
+    	return results;
     }
     
+    /**
+     * Evaluates the expression by walking the expression string, using RECURSION to evaluate 
+     * subexpressions and to evaluate array subscript expressions. Kept to compare against 
+     * the compiled evaluation. After the first call on a thread, this allocates nothing.
+     * 
+     * @return Result of evaluation
+     */
+    float interpret() {
+    		if (stripped == null) {
+    			stripped = expr.replaceAll("\\s", "");
+    		}
+    		if (symbolAt == null) {
+    			symbolAt = new int[stripped.length()];
+    			numberAt = new float[stripped.length()];
+    			matchAt = matchBrackets(stripped);
+    		}
+    		FloatStack oper = OPERANDS.get();
+    		CharStack rators = OPERATORS.get();
+    		oper.clear();
+    		rators.clear();
+    		if (metrics == null) {
+    			return evaluate(stripped, 0, stripped.length()-1, oper, rators);
+    		}
+    		long start = System.nanoTime();
+    		oper.resetPeak();
+    		rators.resetPeak();
+    		float result = evaluate(stripped, 0, stripped.length()-1, oper, rators);
+    		metrics.interpretCalls++;
+    		metrics.interpretNanos += System.nanoTime() - start;
+    		metrics.operandStackPeak = Math.max(metrics.operandStackPeak, oper.peak());
+    		metrics.operatorStackPeak = Math.max(metrics.operatorStackPeak, rators.peak());
+    		return result;
+    }
     
     /**
      * 
-     * Helper method, this uses recursion to evaluate the subexpressions
+     * Helper method, this uses recursion to evaluate the subexpressions. Every level 
+     * works on the top of the shared stacks and leaves them as it found them.
      * 
      * @return Result
      */
-    private float evaluate(String expr, int start, int end) {
-    	Stack<Float> oper = new Stack<Float>();
-    	Stack<Character> rators = new Stack<Character>();
+    private float evaluate(String expr, int start, int end, FloatStack oper, CharStack rators) {
+    	int obase = oper.size();
+    	int rbase = rators.size();
        	
     	for(int i = start; i <= end; i++){
     		if(Character.isLetter(expr.charAt(i))){
     			int st = i+1;
-    			String var = expr.charAt(i)+"";
     			while(st <= end && Character.isLetter(expr.charAt(st))){
-    				var += expr.charAt(st);
     				st++;
     			}
-    			if(containsArray(arrays,var)){
-        			int[] temp = findArray(arrays, var).values;
-        			int endOfArray = endOfRay(expr, i+var.length());
-        			oper.push((float)temp[(int)evaluate(expr,i+var.length(),endOfArray-1)]);
+    			int sym = resolveSymbol(expr, i, st);
+    			if(sym < 0 && sym != UNKNOWN_SYMBOL){
+        			ArraySymbol asymbol = arrays.get(-sym-1);
+        			int endOfArray = matchAt[st];
+        			oper.push((float)asymbol.get((int)evaluate(expr,st,endOfArray-1,oper,rators)));
         			i = endOfArray;
         		}
-    			else if(containsScalar(scalars,var)){
-        			oper.push((float)findScalar(scalars,var).value);
+    			else if(sym > 0){
+        			oper.push((float)scalars.get(sym-1).value);
         			i = st-1; //Check the Index if it works
         		}
         		
     		}
     		else if(isFloat(expr.charAt(i))){
     			int st = i+1;
-    			String var = expr.charAt(i) + "";
     			while(st <= end && isFloat(expr.charAt(st))){
-    				var += expr.charAt(st);
     				st++;
     			}
-    			oper.push(Float.parseFloat(var));
+    			if (symbolAt[i] == 0) {
+    				numberAt[i] = Float.parseFloat(expr.substring(i, st));
+    				symbolAt[i] = UNKNOWN_SYMBOL;
+    			}
+    			oper.push(numberAt[i]);
     			i = st-1; // Check the Index if it works;
     		}
     		else if(expr.charAt(i) == '('){
-    			int endOfArray = endOfRay(expr, i);
-    			oper.push(evaluate(expr, i+1, endOfArray-1));
+    			int endOfArray = matchAt[i];
+    			oper.push(evaluate(expr, i+1, endOfArray-1, oper, rators));
     			i = endOfArray;
     		}
-    		if(!rators.isEmpty() && (rators.peek() == '/' || rators.peek() == '*')){
+    		if(rators.size() > rbase && (rators.peek() == '/' || rators.peek() == '*')){
     			char andrea = rators.pop();
     			float b = oper.pop();
     			float a = oper.pop();
@@ -188,42 +673,83 @@ public class Expression {
     			rators.push(expr.charAt(i));
     	}
     	
-    	Stack<Float> reoper = new Stack<Float>();
-    	Stack<Character> rerators = new Stack<Character>();
-    	while(!oper.isEmpty())
-    		reoper.push(oper.pop());
-    	while(!rators.isEmpty())
-    		rerators.push(rators.pop());
-    	while(reoper.size() > 1){
-    		float b = reoper.pop();
-			float a = reoper.pop();
-			char andrea = rerators.pop();
-			switch(andrea){
-			case '+':reoper.push(b+a);
-				break;
-			case '-':reoper.push(b-a);
-				break;
-			}
-    	}
-    	return reoper.pop();
+    	// only + and - are left, apply them left to right
+    	float result = oper.get(obase);
+    	for(int k = rbase; k < rators.size(); k++){
+    		float b = oper.get(obase + 1 + k - rbase);
+    		switch(rators.get(k)){
+    		case '+':result = result + b;
+    			break;
+    		case '-':result = result - b;
+    			break;
+    		}
+    	}
+    	oper.popTo(obase);
+    	rators.popTo(rbase);
+    	return result;
+    }
+    
+    /**
+     * Resolves the variable name between start (inclusive) and end (exclusive) the first 
+     * time its position is reached, and remembers the result for that position.
+     * 
+     * @return slot+1 for a scalar, -(slot+1) for an array, or UNKNOWN_SYMBOL
+     */
+    private int resolveSymbol(String expr, int start, int end) {
+    	if (symbolAt[start] == 0) {
+    		String var = expr.substring(start, end);
+    		int slot = symbols.arraySlot(var);
+    		if (slot >= 0) {
+    			symbolAt[start] = -(slot+1);
+    		} else if ((slot = symbols.scalarSlot(var)) >= 0) {
+    			symbolAt[start] = slot+1;
+    		} else {
+    			symbolAt[start] = UNKNOWN_SYMBOL;
+    		}
+    	}
+    	return symbolAt[start];
+    }
+    
+    /**
+     * Finds the matching closing bracket or parenthesis of every opening one, in one 
+     * pass with a stack of the positions of the brackets still open.
+     * 
+     * @param e Expression
+     * @return Position of the match at the position of each opening bracket, and 
+     *         e.length() for one that is never closed
+     */
+    static int[] matchBrackets(String e) {
+    	int[] match = new int[e.length()];
+    	int[] open = new int[e.length()];
+    	int top = 0;
+    	for (int i=0; i < e.length(); i++) {
+    		char ch = e.charAt(i);
+    		if (ch == '[' || ch == '(') {
+    			open[top++] = i;
+    			match[i] = e.length();
+    		} else if ((ch == ']' || ch == ')') && top > 0) {
+    			match[open[--top]] = i;
+    		}
+    	}
+    	return match;
     }
     
     /**
-     * finds the index of the closing bracket or parentheses
+     * finds the index of the closing bracket or parentheses, scanning from start; 
+     * the string evaluator looks it up in matchAt instead
      * 
      * @param expression
      * @param start	of the bracket or parentheses
      * @return index of end of the closing bracket or parentheses
      */
     public int endOfRay(String e, int start){
-    	Stack<Character> opens = new Stack<Character>();
-    	opens.push(e.charAt(start));
+    	int open = 1;
     	int index = start + 1;
-    	while(!opens.isEmpty()){
+    	while(open > 0){
     		if(e.charAt(index) == '[' || e.charAt(index) == '(')
-    			opens.push(e.charAt(index));
+    			open++;
     		else if(e.charAt(index) == ']' || e.charAt(index) == ')')
-    			opens.pop();
+    			open--;
     		index++;
     	}
     	return index-1;
@@ -239,68 +765,6 @@ public class Expression {
     	return (blah>=48 && blah<=57) || blah == 46? true: false;
     }
     
-    /**
-     * Checks if the name of the ArraySymbol is already in the ArrayList
-     * 
-     * @param list of the Array ArrayList
-     * @param name of the ArraySymbol
-     * @return if the list contains the ArraySymbol
-     */
-    private boolean containsArray(ArrayList<ArraySymbol> list, String name){
-    	for(ArraySymbol temp: list){
-    		if(temp.name.equals(name))
-    			return true;
-    	}
-    	return false;
-    }
-    
-    /**
-     * Checks if the name of the Scalarsymbol is already in the ArrayList
-     * 
-     * @param list of the Scalar ArrayList
-     * @param name of the Scalar Symbol
-     * @return if list has the Scalar Symbol
-     */
-    private boolean containsScalar(ArrayList<ScalarSymbol> list, String name){
-    	for(ScalarSymbol temp: list){
-    		if(temp.name.equals(name))
-    			return true;
-    	}
-    	return false;
-    }
-    
-    /**
-     * Find the ArraySymbol with that name
-     * 
-     * @param list of the Array ArrayList
-     * @param name of the Array Object
-     * @return the existing ArraySymbol
-     */
-    private ArraySymbol findArray(ArrayList<ArraySymbol> list, String name){
-    	ArraySymbol temp = null;
-    	for(ArraySymbol t: list){
-    		if(t.name.equals(name))
-    			temp = t;
-    	}
-    	return temp;
-    }
-    
-    /**
-     * Finds the ScalarSymbol with that name
-     * 
-     * @param list of the Scalar ArrayList
-     * @param name of the Scalar Object
-     * @return the exiting ScalarSymbol
-     */
-    private ScalarSymbol findScalar(ArrayList<ScalarSymbol> list, String name){
-    	ScalarSymbol temp = null;
-    	for(ScalarSymbol t: list){
-    		if(t.name.equals(name))
-    			temp = t;
-    	}
-    	return temp;
-    }
-
     /**
      * Utility method, prints the symbols in the scalars list
      */
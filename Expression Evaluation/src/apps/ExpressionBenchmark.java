@@ -0,0 +1,1086 @@
+package apps;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import structures.CharStack;
+import structures.FloatStack;
+import structures.IntStack;
+import structures.Stack;
+
+/**
+ * Times parsing, symbol loading and the different ways of evaluating an Expression on
+ * the etest inputs and on large generated expressions, and prints one
+ * "label,case,method,score,error" CSV line per measurement, so that runs of different
+ * versions, each given its own label, can be collected into one table. Scores are
+ * nanoseconds per operation, bytes allocated per operation for methods ending in
+ * ".bytes", or megabytes read per second for methods ending in ".mbps", or a count of
+ * nodes for methods ending in ".eliminated".
+ *
+ * Every timed score is the mean of several trials, each run after a warmup round, and
+ * its error is the standard deviation of the trials; scores measured once have no
+ * error. The measurements are split into groups, and each group is run in a JVM of its
+ * own, so that the code the JIT compiled for one group does not slow down the next.
+ * Results are checked by ExpressionChecks before they are timed.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class ExpressionBenchmark {
+
+	/**
+	 * (symbol values file, expression) pairs that are measured
+	 */
+	static final String[][] CASES = {
+		{"etest1.txt", "a - (b+A[B[2]])*d + 3"},
+		{"etest2.txt", "varx + vary*arrayA[varx-vary+3]"},
+		{"etest3.txt", "d*(c-B[a+CARR[0]-A[1]+b]) -8"},
+		{"etest5.txt", "(varx + vary*10)*a - ((c*d/b)) + ab[2]*cd[5] - arrayA[varx+3]"},
+		{"etest6.txt", "a*b/c + A[B[CARR[1]+1]]*(d-a) - (((a)))"},
+	};
+
+	/**
+	 * Groups of measurements, in the order they are run
+	 */
+	static final String[] GROUPS = {
+		"cases", "large", "nested", "concurrent", "lazy", "stacks", "load", "stores"
+	};
+
+	/**
+	 * Number of rows in each batch evaluation
+	 */
+	static final int BATCH_ROWS = 10000;
+
+	/**
+	 * Sink for results, so that the JIT cannot discard the measured work
+	 */
+	static float sink;
+
+	/**
+	 * Label of the run, written in the first column of every line
+	 */
+	static String label = "dev";
+
+	/**
+	 * Stream the lines are written to
+	 */
+	static PrintStream out = System.out;
+
+	/**
+	 * Number of timed trials per measurement
+	 */
+	static int trials = 5;
+
+	/**
+	 * @param args Options -label NAME, for the first column; -out FILE, to write the
+	 *        lines to a file instead of the console; -trials N, for the number of timed
+	 *        trials per measurement; -only GROUP, repeatable, to run only the given
+	 *        groups; -nofork, to run every group in this JVM; then optional number of
+	 *        evaluations per measurement, and optional number of entries in the array
+	 *        of the generated symbol values file
+	 */
+	public static void main(String[] args) throws IOException {
+		ArrayList<String> numbers = new ArrayList<String>();
+		ArrayList<String> groups = new ArrayList<String>();
+		boolean fork = true;
+		boolean header = true;
+		for (int i=0; i < args.length; i++) {
+			if (args[i].equals("-label") && i+1 < args.length) {
+				label = args[++i];
+			} else if (args[i].equals("-out") && i+1 < args.length) {
+				out = new PrintStream(new FileOutputStream(args[++i]), true);
+			} else if (args[i].equals("-trials") && i+1 < args.length) {
+				trials = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-only") && i+1 < args.length) {
+				groups.add(args[++i]);
+			} else if (args[i].equals("-nofork")) {
+				fork = false;
+			} else if (args[i].equals("-noheader")) {
+				header = false;
+			} else {
+				numbers.add(args[i]);
+			}
+		}
+		if (groups.isEmpty()) {
+			groups.addAll(Arrays.asList(GROUPS));
+		}
+		int iterations = numbers.size() > 0 ? Integer.parseInt(numbers.get(0)) : 1000000;
+		int entries = numbers.size() > 1 ? Integer.parseInt(numbers.get(1)) : 2000000;
+		if (header) {
+			out.println("label,case,method,score,error");
+		}
+		for (String group: groups) {
+			if (fork) {
+				fork(group, iterations, entries);
+			} else {
+				run(group, iterations, entries);
+			}
+		}
+	}
+
+	/**
+	 * Runs one group of measurements in this JVM.
+	 *
+	 * @param group Group name, one of GROUPS
+	 * @param iterations Number of evaluations per measurement
+	 * @param entries Number of entries in the array of the generated symbol values file
+	 * @throws IllegalArgumentException If there is no such group
+	 */
+	static void run(String group, int iterations, int entries) throws IOException {
+		if (group.equals("cases")) {
+			benchmarkCases(iterations);
+		} else if (group.equals("large")) {
+			benchmarkLarge(iterations);
+		} else if (group.equals("nested")) {
+			benchmarkNested(iterations);
+		} else if (group.equals("concurrent")) {
+			benchmarkConcurrent(iterations);
+		} else if (group.equals("lazy")) {
+			benchmarkLazy(iterations);
+		} else if (group.equals("stacks")) {
+			benchmarkStacks(iterations);
+		} else if (group.equals("load")) {
+			benchmarkLoad(entries);
+		} else if (group.equals("stores")) {
+			benchmarkStores(iterations);
+		} else {
+			throw new IllegalArgumentException("No such group: " + group);
+		}
+	}
+
+	/**
+	 * Runs one group of measurements in a new JVM with the same class path and memory
+	 * options as this one, and copies its lines to out.
+	 *
+	 * @param group Group name, one of GROUPS
+	 * @param iterations Number of evaluations per measurement
+	 * @param entries Number of entries in the array of the generated symbol values file
+	 * @throws IllegalStateException If the JVM fails
+	 */
+	static void fork(String group, int iterations, int entries) throws IOException {
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for (String arg: ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			// memory and stack options only, not debugger agents
+			if (arg.startsWith("-X")) {
+				command.add(arg);
+			}
+		}
+		command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+				ExpressionBenchmark.class.getName(), "-label", label, "-trials", String.valueOf(trials),
+				"-only", group, "-nofork", "-noheader", String.valueOf(iterations), String.valueOf(entries)));
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process process = pb.start();
+		BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		String line;
+		while ((line = br.readLine()) != null) {
+			out.println(line);
+		}
+		br.close();
+		try {
+			int status = process.waitFor();
+			if (status != 0) {
+				throw new IllegalStateException(group + ": benchmark JVM exited with status " + status);
+			}
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Times parsing, loading and every way of evaluating each of the etest cases.
+	 *
+	 * @param iterations Number of evaluations per measurement
+	 */
+	static void benchmarkCases(int iterations) throws IOException {
+		for (String[] c: CASES) {
+			ExpressionChecks.checkCase(c[0], c[0], c[1]);
+			final String[] request = c;
+			report(c[0], "parse", iterations / 100, new Runnable() {
+				public void run() {
+					Expression e = new Expression(request[1]);
+					e.buildSymbols();
+					e.compile();
+					sink += e.scalars.size();
+				}
+			});
+			final Expression loaded = new Expression(c[1]);
+			loaded.buildSymbols();
+			report(c[0], "load", iterations / 100, new Runnable() {
+				public void run() {
+					try {
+						loaded.loadSymbolValues(request[0]);
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			final Expression expr = load(c[0], c[1]);
+			final Expression generated = load(c[0], c[1]);
+			generated.generate();
+			final SymbolColumns cols = columns(expr, BATCH_ROWS);
+			reportBytes(c[0], "string", ExpressionChecks.checkNoAllocation(c[0], "string", iterations, new Runnable() {
+				public void run() { sink += expr.interpret(); }
+			}));
+			reportBytes(c[0], "compiled", ExpressionChecks.checkNoAllocation(c[0], "compiled", iterations, new Runnable() {
+				public void run() { sink += expr.evaluate(); }
+			}));
+			report(c[0], "string", iterations, new Runnable() {
+				public void run() { sink += expr.interpret(); }
+			});
+			report(c[0], "compiled", iterations, new Runnable() {
+				public void run() { sink += expr.evaluate(); }
+			});
+			report(c[0], "generated", iterations, new Runnable() {
+				public void run() { sink += generated.evaluate(); }
+			});
+			final Expression metered = load(c[0], c[1]);
+			metered.enableMetrics();
+			report(c[0], "metered", iterations, new Runnable() {
+				public void run() { sink += metered.evaluate(); }
+			});
+			report(c[0], "double", iterations, new Runnable() {
+				public void run() { sink += expr.evaluateDouble(); }
+			});
+			report(c[0], "long", iterations, new Runnable() {
+				public void run() { sink += expr.evaluateLong(); }
+			});
+			report(c[0], "lazy", iterations, new Runnable() {
+				public void run() { sink += expr.evaluateLazy(); }
+			});
+			reportRows(c[0], "batch", iterations / BATCH_ROWS, BATCH_ROWS, new Runnable() {
+				public void run() { sink += expr.evaluateBatch(cols)[0]; }
+			});
+			final ExpressionCache cache = new ExpressionCache(16);
+			final ExpressionCache uncached = new ExpressionCache(16);
+			uncached.setEnabled(false);
+			report(c[0], "cached", iterations / 100, new Runnable() {
+				public void run() { sink += evaluate(cache, request); }
+			});
+			report(c[0], "uncached", iterations / 100, new Runnable() {
+				public void run() { sink += evaluate(uncached, request); }
+			});
+		}
+	}
+
+	/**
+	 * Evaluates a (symbol values file, expression) request through a cache.
+	 */
+	static float evaluate(ExpressionCache cache, String[] request) {
+		try {
+			return cache.evaluate(request[1], request[0]);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Terms that generated expressions are made of, all valid with the etest1.txt values
+	 */
+	static final String[] TERMS = {
+		"a*b", "A[b+2]/(d-a)", "(a+B[a-1])*b", "d/(b+a)", "A[B[2]+3]", "b-a*0.5", "(3*4)/b"
+	};
+
+	/**
+	 * Terms of generated array-heavy expressions, with subscripts nested up to three
+	 * deep, all in bounds with the etest1.txt values
+	 */
+	static final String[] ARRAY_TERMS = {
+		"A[b+2]", "B[a-1]", "A[B[2]+3]", "A[B[a-1]+B[2]]", "B[A[2]-1]*A[4]", "A[A[B[2]]+b]"
+	};
+
+	/**
+	 * Generates a flat sum of terms, which compiles to a long chain of operators.
+	 *
+	 * @param terms Number of terms
+	 * @param random Source of the terms and operators
+	 * @return Expression text
+	 */
+	static String generateWide(int terms, Random random) {
+		return generateSum(TERMS, terms, random);
+	}
+
+	/**
+	 * Generates a flat sum of terms that are mostly array elements.
+	 *
+	 * @param terms Number of terms
+	 * @param random Source of the terms and operators
+	 * @return Expression text
+	 */
+	static String generateArrays(int terms, Random random) {
+		return generateSum(ARRAY_TERMS, terms, random);
+	}
+
+	/**
+	 * Generates a flat sum of terms picked from the given ones.
+	 */
+	static String generateSum(String[] pool, int terms, Random random) {
+		StringBuilder sb = new StringBuilder(pool[0]);
+		for (int i=1; i < terms; i++) {
+			sb.append(random.nextBoolean() ? " + " : " - ");
+			sb.append(pool[random.nextInt(pool.length)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Generates a sum of terms grouped by nested parentheses, which compiles to a
+	 * balanced tree.
+	 *
+	 * @param terms Number of terms
+	 * @param random Source of the terms and operators
+	 * @return Expression text
+	 */
+	static String generateDeep(int terms, Random random) {
+		if (terms <= 4) {
+			return generateWide(terms, random);
+		}
+		return "(" + generateDeep(terms/2, random) + ")" + (random.nextBoolean() ? " + " : " - ") +
+				"(" + generateDeep(terms - terms/2, random) + ")";
+	}
+
+	/**
+	 * Number of terms of the generated expression measured by benchmarkLazy
+	 */
+	static final int LAZY_TERMS = 100;
+
+	/**
+	 * Number of array-heavy terms in each scaled sum of the generated expression
+	 * measured by benchmarkLazy
+	 */
+	static final int LAZY_SUM = 8;
+
+	/**
+	 * Generates a sum of terms that are each a scalar times a sum of array-heavy terms,
+	 * every other one scaled by a scalar z that is not in etest1.txt, so that it stays
+	 * zero and lazy evaluation skips half of the array reads.
+	 *
+	 * @return Expression text
+	 */
+	static String generateLazy() {
+		Random random = new Random(112);
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i < LAZY_TERMS; i++) {
+			if (i > 0) {
+				sb.append(random.nextBoolean() ? " + " : " - ");
+			}
+			sb.append(i % 2 == 0 ? "z*(" : "a*(").append(generateArrays(LAZY_SUM, random)).append(')');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Evaluates the generated sum of generateLazy eagerly and lazily, and prints how many
+	 * nodes per evaluation the lazy evaluation skips.
+	 *
+	 * @param iterations Number of evaluations per measurement
+	 */
+	static void benchmarkLazy(int iterations) throws IOException {
+		String name = "lazy-zeros-" + LAZY_TERMS;
+		final Expression expr = load("etest1.txt", generateLazy());
+		ExpressionChecks.checkLazy(name, expr);
+		report(name, "compiled", iterations / LAZY_TERMS, new Runnable() {
+			public void run() { sink += expr.evaluate(); }
+		});
+		report(name, "lazy", iterations / LAZY_TERMS, new Runnable() {
+			public void run() { sink += expr.evaluateLazy(); }
+		});
+		LazyEvaluation lazy = expr.lazyEvaluation();
+		row(name, "lazy.skipped", String.format(Locale.ROOT, "%.1f", (double)lazy.nodesSkipped / lazy.evaluations));
+	}
+
+	/**
+	 * Number of different sets of scalar values evaluated by the concurrent cases, each
+	 * value 1 or 2 so that every subscript stays in bounds
+	 */
+	static final int CONCURRENT_VALUES = 64;
+
+	/**
+	 * Evaluates one frozen expression from many threads at once, each with its own
+	 * bindings and each cycling through the same sets of scalar values from a different
+	 * starting point. There are twice as many threads as processors, so that threads
+	 * are preempted in the middle of evaluations. Prints the average wall time per
+	 * evaluation.
+	 *
+	 * @param iterations Number of evaluations by each thread
+	 */
+	static void benchmarkConcurrent(final int iterations) throws IOException {
+		String[][] cases = {
+			{"concurrent-etest5", "etest5.txt", CASES[3][1]},
+			{"concurrent-wide", "etest1.txt", generateWide(200, new Random(112))},
+		};
+		int threads = 2 * Runtime.getRuntime().availableProcessors();
+		for (String[] c: cases) {
+			Expression expr = load(c[1], c[2]);
+			final String[] names = new String[expr.scalars.size()];
+			final int[][] values = new int[CONCURRENT_VALUES][names.length];
+			final float[] expected = new float[CONCURRENT_VALUES];
+			for (int i=0; i < names.length; i++) {
+				names[i] = expr.scalars.get(i).name;
+			}
+			Random random = new Random(112);
+			for (int k=0; k < CONCURRENT_VALUES; k++) {
+				for (int i=0; i < names.length; i++) {
+					values[k][i] = random.nextInt(2) + 1;
+					expr.scalars.get(i).value = values[k][i];
+				}
+				expected[k] = expr.evaluate();
+			}
+			Expression generated = load(c[1], c[2]);
+			generated.generate();
+			CompiledExpression[] frozen = {expr.freeze(), generated.freeze()};
+			String[] methods = {"compiled", "generated"};
+			for (int m=0; m < frozen.length; m++) {
+				String name = c[0] + ":" + methods[m];
+				ExpressionChecks.checkConcurrent(name, frozen[m], names, values, expected, threads, iterations);
+				// the check doubles as the warmup round
+				double[] samples = new double[trials];
+				for (int t=0; t < trials; t++) {
+					samples[t] = timeConcurrent(frozen[m], names, values, threads, iterations);
+				}
+				row(c[0], methods[m], samples);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a frozen expression from many threads at once, as benchmarkConcurrent
+	 * describes.
+	 *
+	 * @return Wall time per evaluation, in nanoseconds
+	 */
+	static double timeConcurrent(final CompiledExpression compiled, final String[] names,
+			final int[][] values, int threads, final int iterations) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int t=0; t < threads; t++) {
+			final int first = t;
+			pool.execute(new Runnable() {
+				public void run() {
+					Bindings bindings = compiled.bindings();
+					float sum = 0;
+					for (int j=0; j < iterations; j++) {
+						int k = (first + j) % CONCURRENT_VALUES;
+						for (int i=0; i < names.length; i++) {
+							bindings.setScalar(names[i], values[k][i]);
+						}
+						sum += compiled.evaluate(bindings);
+					}
+					synchronized (ExpressionBenchmark.class) {
+						sink += sum;
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		try {
+			pool.awaitTermination(1, TimeUnit.HOURS);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+		return (double)(System.nanoTime() - start) / ((long)threads * iterations);
+	}
+
+	/**
+	 * Generates a single term nested to the given depth, alternating parentheses and
+	 * array subscripts, such as (b+A[0*(b+A[0*a])]).
+	 */
+	static String generateNested(int depth) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i < depth; i++) {
+			sb.append(i % 2 == 0 ? "(b+" : "A[0*");
+		}
+		sb.append('a');
+		for (int i=depth-1; i >= 0; i--) {
+			sb.append(i % 2 == 0 ? ')' : ']');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Stack size of the thread that runs the nested cases, which recurse once per level
+	 */
+	static final long NESTED_STACK = 1L << 30;
+
+	/**
+	 * Times the string evaluator on deeply nested expressions, along with the cost of
+	 * finding every closing bracket by scanning from its opening one, as the string
+	 * evaluator used to, and by the one-pass match table it uses now.
+	 *
+	 * @param iterations Number of evaluations of the small cases, scaled down by expression size
+	 */
+	static void benchmarkNested(final int iterations) {
+		final RuntimeException[] failure = new RuntimeException[1];
+		Thread t = new Thread(null, new Runnable() {
+			public void run() {
+				try {
+					for (int depth: new int[] {1000, 10000}) {
+						benchmarkNested("nested-" + depth, generateNested(depth), iterations);
+					}
+				} catch (IOException e) {
+					failure[0] = new IllegalStateException(e);
+				} catch (RuntimeException e) {
+					failure[0] = e;
+				}
+			}
+		}, "nested", NESTED_STACK);
+		t.start();
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Times one nested case.
+	 */
+	static void benchmarkNested(String name, String text, int iterations) throws IOException {
+		final Expression expr = load("etest1.txt", text);
+		ExpressionChecks.checkNested(name, expr);
+		final String e = expr.stripped;
+		int n = Math.max(10, iterations / 10000);
+		report(name, "scan", n, new Runnable() {
+			public void run() {
+				for (int i=0; i < e.length(); i++) {
+					if (e.charAt(i) == '(' || e.charAt(i) == '[') {
+						sink += expr.endOfRay(e, i);
+					}
+				}
+			}
+		});
+		report(name, "table", n, new Runnable() {
+			public void run() { sink += Expression.matchBrackets(e)[0]; }
+		});
+		report(name, "string", n, new Runnable() {
+			public void run() { sink += expr.interpret(); }
+		});
+		report(name, "compiled", n, new Runnable() {
+			public void run() { sink += expr.evaluate(); }
+		});
+	}
+
+	/**
+	 * Returns the large generated cases, as (case name, expression) pairs whose values
+	 * are in etest1.txt.
+	 *
+	 * @return Cases
+	 */
+	static String[][] largeCases() {
+		Random random = new Random(112);
+		return new String[][] {
+			{"generated-wide", generateWide(20000, random)},
+			{"generated-deep", generateDeep(20000, random)},
+			{"generated-arrays", generateArrays(20000, random)},
+		};
+	}
+
+	/**
+	 * Times sequential and parallel evaluation of large generated expressions.
+	 *
+	 * @param iterations Number of evaluations of the small cases, scaled down by expression size
+	 */
+	static void benchmarkLarge(int iterations) throws IOException {
+		for (String[] c: largeCases()) {
+			ExpressionChecks.checkLarge(c[0], "etest1.txt", c[1]);
+			final Expression expr = load("etest1.txt", c[1]);
+			int n = Math.max(10, iterations / 10000);
+			final String text = c[1];
+			report(c[0], "parse", n, new Runnable() {
+				public void run() {
+					Expression e = new Expression(text);
+					e.buildSymbols();
+					e.compile();
+					sink += e.scalars.size();
+				}
+			});
+			report(c[0], "compiled", n, new Runnable() {
+				public void run() { sink += expr.evaluate(); }
+			});
+			report(c[0], "parallel", n, new Runnable() {
+				public void run() { sink += expr.evaluateParallel(); }
+			});
+			// a symbol read in one place, so each change dirties one path
+			final Expression incremental = load("etest1.txt", "(" + c[1] + ") + e");
+			final ScalarSymbol e = incremental.scalars.get(incremental.symbols.scalarSlot("e"));
+			report(c[0], "incremental", n, new Runnable() {
+				public void run() { e.value ^= 1; sink += incremental.evaluateIncremental(); }
+			});
+			final Expression optimized = load("etest1.txt", c[1]);
+			ExpressionOptimizer optimizer = optimized.optimize();
+			row(c[0], "optimized.eliminated", String.valueOf(optimizer.nodesBefore - optimizer.nodesAfter));
+			report(c[0], "optimized", n, new Runnable() {
+				public void run() { sink += optimized.evaluate(); }
+			});
+			if (optimized.generate()) {
+				report(c[0], "generated", n, new Runnable() {
+					public void run() { sink += optimized.evaluate(); }
+				});
+			}
+		}
+	}
+
+	/**
+	 * Number of items pushed, then popped, by each operation of benchmarkStacks
+	 */
+	static final int STACK_DEPTH = 64;
+
+	/**
+	 * Stacks measured by benchmarkStacks, by method name
+	 */
+	static final String[] STACKS = {
+		"arraylist", "generic.int", "int", "generic.float", "float", "generic.char", "char"
+	};
+
+	/**
+	 * Number of untimed rounds run before the timed trials of each stack, enough for
+	 * the JIT to compile its loop
+	 */
+	static final int STACK_WARMUP = 5;
+
+	/**
+	 * Pushes and then pops STACK_DEPTH items on the generic Stack, boxing them, and on
+	 * the primitive stacks, and prints the time per push and pop. The "arraylist"
+	 * method does the same on an ArrayList, which is how Stack used to be backed.
+	 * Values start above the range that Integer.valueOf caches, so boxing allocates.
+	 * Every stack is pushed and popped by a loop of its own, warmed up on its own,
+	 * so that the JIT compiles each loop for one stack class only; a shared loop that
+	 * calls every stack through one interface times the call, not the stack.
+	 *
+	 * @param iterations Number of items pushed per trial
+	 */
+	static void benchmarkStacks(int iterations) {
+		String name = "stack-" + STACK_DEPTH;
+		int rounds = Math.max(1, iterations / STACK_DEPTH);
+		for (String method: STACKS) {
+			for (int w=0; w < STACK_WARMUP; w++) {
+				sink += pushPop(method, rounds);
+			}
+			double[] samples = new double[trials];
+			for (int t=0; t < trials; t++) {
+				long start = System.nanoTime();
+				sink += pushPop(method, rounds);
+				samples[t] = (double)(System.nanoTime() - start) / ((long)rounds * STACK_DEPTH);
+			}
+			row(name, method, samples);
+		}
+	}
+
+	/**
+	 * Pushes and then pops STACK_DEPTH items, the given number of times, on a new stack
+	 * of the kind named by a method of STACKS.
+	 *
+	 * @return Sum of the items popped
+	 */
+	static float pushPop(String method, int rounds) {
+		if (method.equals("arraylist")) {
+			return pushPop(new ArrayList<Integer>(), rounds);
+		} else if (method.equals("generic.int")) {
+			return pushPopIntegers(new Stack<Integer>(), rounds);
+		} else if (method.equals("int")) {
+			return pushPop(new IntStack(), rounds);
+		} else if (method.equals("generic.float")) {
+			return pushPopFloats(new Stack<Float>(), rounds);
+		} else if (method.equals("float")) {
+			return pushPop(new FloatStack(), rounds);
+		} else if (method.equals("generic.char")) {
+			return pushPopCharacters(new Stack<Character>(), rounds);
+		} else if (method.equals("char")) {
+			return pushPop(new CharStack(), rounds);
+		}
+		throw new IllegalArgumentException("No such stack: " + method);
+	}
+
+	static float pushPop(ArrayList<Integer> list, int rounds) {
+		float sum = 0;
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < STACK_DEPTH; i++) {
+				list.add(1000 + i);
+			}
+			while (!list.isEmpty()) {
+				sum += list.remove(list.size()-1);
+			}
+		}
+		return sum;
+	}
+
+	static float pushPopIntegers(Stack<Integer> stack, int rounds) {
+		float sum = 0;
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < STACK_DEPTH; i++) {
+				stack.push(1000 + i);
+			}
+			while (!stack.isEmpty()) {
+				sum += stack.pop();
+			}
+		}
+		return sum;
+	}
+
+	static float pushPop(IntStack stack, int rounds) {
+		float sum = 0;
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < STACK_DEPTH; i++) {
+				stack.push(1000 + i);
+			}
+			while (!stack.isEmpty()) {
+				sum += stack.pop();
+			}
+		}
+		return sum;
+	}
+
+	static float pushPopFloats(Stack<Float> stack, int rounds) {
+		float sum = 0;
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < STACK_DEPTH; i++) {
+				stack.push(1000.5f + i);
+			}
+			while (!stack.isEmpty()) {
+				sum += stack.pop();
+			}
+		}
+		return sum;
+	}
+
+	static float pushPop(FloatStack stack, int rounds) {
+		float sum = 0;
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < STACK_DEPTH; i++) {
+				stack.push(1000.5f + i);
+			}
+			while (!stack.isEmpty()) {
+				sum += stack.pop();
+			}
+		}
+		return sum;
+	}
+
+	static float pushPopCharacters(Stack<Character> stack, int rounds) {
+		float sum = 0;
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < STACK_DEPTH; i++) {
+				stack.push((char)(1000 + i));
+			}
+			while (!stack.isEmpty()) {
+				sum += stack.pop();
+			}
+		}
+		return sum;
+	}
+
+	static float pushPop(CharStack stack, int rounds) {
+		float sum = 0;
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < STACK_DEPTH; i++) {
+				stack.push((char)(1000 + i));
+			}
+			while (!stack.isEmpty()) {
+				sum += stack.pop();
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Writes a symbol values file with one large array and reports how fast the
+	 * Scanner loader and the channel loader read it.
+	 *
+	 * @param entries Number of (index,val) pairs in the array
+	 */
+	static void benchmarkLoad(int entries) throws IOException {
+		File file = File.createTempFile("symbols", ".txt");
+		file.deleteOnExit();
+		PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		pw.println("a 3");
+		pw.print("A " + entries);
+		Random random = new Random(112);
+		for (int i=0; i < entries; i++) {
+			pw.print(" (" + i + "," + random.nextInt() + ")");
+		}
+		pw.println();
+		pw.close();
+		double mb = file.length() / 1e6;
+		String name = "generated-" + entries;
+
+		// the Scanner loader is too slow to run more than once
+		Expression scanned = new Expression("a + A[a]");
+		scanned.buildSymbols();
+		long start = System.nanoTime();
+		Scanner sc = new Scanner(file);
+		scanned.loadSymbolValues(sc);
+		sc.close();
+		row(name, "scanner.mbps", String.format(Locale.ROOT, "%.1f", mb / ((System.nanoTime() - start) / 1e9)));
+
+		Expression channeled = new Expression("a + A[a]");
+		channeled.buildSymbols();
+		channeled.loadSymbolValues(file.getPath());
+		ExpressionChecks.checkLoaders(name, scanned, channeled);
+		scanned = null;
+		for (int i=0; i < 3; i++) {
+			channeled.loadSymbolValues(file.getPath());
+		}
+		double[] samples = new double[trials];
+		for (int t=0; t < trials; t++) {
+			start = System.nanoTime();
+			channeled.loadSymbolValues(file.getPath());
+			samples[t] = mb / ((System.nanoTime() - start) / 1e9);
+		}
+		row(name, "channel.mbps", samples);
+	}
+
+	/**
+	 * Declared length of the array in the sparse case, which would take 1.6 GB dense
+	 */
+	static final int SPARSE_LENGTH = 400000000;
+
+	/**
+	 * Most heap a load of a dense array held off the heap may allocate, mostly read
+	 * buffers; a sparse table on the way would take hundreds of megabytes
+	 */
+	static final long DIRECT_LOAD_MAX_BYTES = 16 << 20;
+
+	/**
+	 * Loads a very long array with a few elements set, which is kept sparse, and a long
+	 * array with every element set, which is held off the heap without passing through
+	 * the heap, and times subscripts into both against the same subscripts into an
+	 * int[].
+	 *
+	 * @param iterations Number of evaluations per measurement
+	 */
+	static void benchmarkStores(int iterations) throws IOException {
+		File file = File.createTempFile("sparse", ".txt");
+		file.deleteOnExit();
+		PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		pw.println("a 3");
+		pw.print("A " + SPARSE_LENGTH);
+		Random random = new Random(112);
+		int[] indexes = new int[1000];
+		for (int i=0; i < indexes.length; i++) {
+			// multiples of 64, which are exact as float subscripts
+			indexes[i] = random.nextInt(SPARSE_LENGTH / 64) * 64;
+			pw.print(" (" + indexes[i] + "," + (indexes[i] % 1000) + ")");
+		}
+		pw.println(" (3,42)");
+		pw.close();
+
+		String name = "sparse-" + SPARSE_LENGTH;
+		String text = "A[a] + A[a*2] - A[" + indexes[0] + "] * A[" + indexes[1] + "]";
+		final Expression sparse = new Expression(text);
+		sparse.buildSymbols();
+		long before = allocatedBytes();
+		sparse.loadSymbolValues(file.getPath());
+		if (before != -1) {
+			row(name, "load.bytes", String.valueOf(allocatedBytes() - before));
+		}
+		ExpressionChecks.checkSparse(name, sparse, 42 + 0 - (indexes[0] % 1000) * (indexes[1] % 1000));
+		report(name, "compiled", iterations, new Runnable() {
+			public void run() { sink += sparse.evaluate(); }
+		});
+
+		// every element set, so the array goes straight off the heap
+		int length = ArraySymbol.DIRECT_MIN_LENGTH;
+		name = "direct-" + length;
+		file = File.createTempFile("direct", ".txt");
+		file.deleteOnExit();
+		Writer w = new BufferedWriter(new FileWriter(file), 1 << 16);
+		w.write("a 1000\nA " + length);
+		for (int i=0; i < length; i++) {
+			w.write(" (" + i + "," + (i % 1000 + 1) + ")");
+		}
+		w.write("\n");
+		w.close();
+		final Expression direct = new Expression("A[a] + A[a*7] - A[a*a]");
+		direct.buildSymbols();
+		before = allocatedBytes();
+		direct.loadSymbolValues(file.getPath());
+		long loadBytes = before == -1 ? -1 : allocatedBytes() - before;
+		if (loadBytes != -1) {
+			row(name, "load.bytes", String.valueOf(loadBytes));
+		}
+		file.delete();
+		final Expression heap = new Expression("A[a] + A[a*7] - A[a*a]");
+		heap.buildSymbols();
+		heap.scalars.get(0).value = 1000;
+		heap.arrays.get(0).values = new int[length];
+		for (int i=0; i < length; i++) {
+			heap.arrays.get(0).values[i] = i % 1000 + 1;
+		}
+		ExpressionChecks.checkDirect(name, direct, heap, loadBytes, DIRECT_LOAD_MAX_BYTES);
+		report(name, "compiled", iterations, new Runnable() {
+			public void run() { sink += direct.evaluate(); }
+		});
+		report(name, "heap", iterations, new Runnable() {
+			public void run() { sink += heap.evaluate(); }
+		});
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the current thread.
+	 *
+	 * @return Bytes allocated, or -1 if the JVM cannot count allocated bytes per thread
+	 */
+	static long allocatedBytes() {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		return ((com.sun.management.ThreadMXBean)mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Builds an expression and loads its symbol values from a file.
+	 *
+	 * @param file Symbol values file
+	 * @param text Expression
+	 * @return Expression ready for evaluation
+	 */
+	static Expression load(String file, String text) throws IOException {
+		Expression expr = new Expression(text);
+		expr.buildSymbols();
+		Scanner sc = new Scanner(new File(file));
+		expr.loadSymbolValues(sc);
+		sc.close();
+		return expr;
+	}
+
+	/**
+	 * Builds columns that repeat the loaded value of every scalar of an expression.
+	 *
+	 * @param expr Expression with loaded symbol values
+	 * @param rows Number of rows
+	 * @return Columns with one int column per scalar
+	 */
+	static SymbolColumns columns(Expression expr, int rows) {
+		SymbolColumns cols = new SymbolColumns(rows);
+		for (ScalarSymbol ss: expr.scalars) {
+			int[] col = new int[rows];
+			Arrays.fill(col, ss.value);
+			cols.put(ss.name, col);
+		}
+		return cols;
+	}
+
+	/**
+	 * Times an operation, and prints the mean time per operation over the trials with
+	 * its standard deviation.
+	 *
+	 * @param name Case name
+	 * @param method Method name
+	 * @param iterations Number of operations per round
+	 * @param op Operation to time
+	 */
+	static void report(String name, String method, int iterations, Runnable op) {
+		row(name, method, time(Math.max(1, iterations), op));
+	}
+
+	/**
+	 * Same as report, for an operation that evaluates many rows at once; prints the
+	 * mean time per row.
+	 *
+	 * @param name Case name
+	 * @param method Method name
+	 * @param iterations Number of operations per round
+	 * @param rows Number of rows evaluated by each operation
+	 * @param op Operation to time
+	 */
+	static void reportRows(String name, String method, int iterations, int rows, Runnable op) {
+		double[] samples = time(Math.max(1, iterations), op);
+		for (int t=0; t < samples.length; t++) {
+			samples[t] /= rows;
+		}
+		row(name, method, samples);
+	}
+
+	/**
+	 * Prints the bytes allocated per operation measured by a check, unless the JVM
+	 * could not count them.
+	 *
+	 * @param name Case name
+	 * @param method Method name, without ".bytes"
+	 * @param perOp Bytes per operation, or -1 if unknown
+	 */
+	static void reportBytes(String name, String method, double perOp) {
+		if (perOp >= 0) {
+			row(name, method + ".bytes", String.format(Locale.ROOT, "%.2f", perOp));
+		}
+	}
+
+	/**
+	 * Runs an operation for a warmup round and then for a timed round per trial.
+	 *
+	 * @param iterations Number of operations per round
+	 * @param op Operation to time
+	 * @return Average nanoseconds per operation in each timed round
+	 */
+	static double[] time(int iterations, Runnable op) {
+		for (int i=0; i < iterations; i++) {
+			op.run();
+		}
+		double[] samples = new double[trials];
+		for (int t=0; t < trials; t++) {
+			long start = System.nanoTime();
+			for (int i=0; i < iterations; i++) {
+				op.run();
+			}
+			samples[t] = (double)(System.nanoTime() - start) / iterations;
+		}
+		return samples;
+	}
+
+	/**
+	 * Prints one line of results for a score measured once, with no error.
+	 *
+	 * @param name Case name
+	 * @param method Method name
+	 * @param score Score, formatted
+	 */
+	static void row(String name, String method, String score) {
+		out.println(label + "," + name + "," + method + "," + score + ",");
+	}
+
+	/**
+	 * Prints one line of results for a score measured in several trials: their mean,
+	 * and their standard deviation as the error.
+	 *
+	 * @param name Case name
+	 * @param method Method name
+	 * @param samples Score of each trial
+	 */
+	static void row(String name, String method, double[] samples) {
+		double mean = 0;
+		for (double s: samples) {
+			mean += s;
+		}
+		mean /= samples.length;
+		double variance = 0;
+		for (double s: samples) {
+			variance += (s - mean) * (s - mean);
+		}
+		double error = samples.length > 1 ? Math.sqrt(variance / (samples.length - 1)) : 0;
+		out.println(label + "," + name + "," + method + "," +
+				String.format(Locale.ROOT, "%.1f,%.1f", mean, error));
+	}
+}
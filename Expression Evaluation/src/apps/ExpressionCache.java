@@ -0,0 +1,241 @@
+package apps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Answers repeated evaluations of the same expression against the same symbol values
+ * file without parsing, loading or evaluating again. Compiled expressions are kept by
+ * their tokens, so that only whitespace between tokens is ignored, and results by those
+ * tokens plus the path, modification time and length of the symbol values file. A file
+ * rewritten with the same length within the resolution of the file system's clock is
+ * taken to be unchanged. Both are bounded and drop the least recently used entry when
+ * full. When disabled, every request builds, loads and evaluates a new Expression.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class ExpressionCache {
+
+	/**
+	 * Number of requests answered from the results
+	 */
+	public long hits;
+
+	/**
+	 * Number of requests that had to be evaluated
+	 */
+	public long misses;
+
+	/**
+	 * Number of results dropped to make room for newer ones
+	 */
+	public long evictions;
+
+	/**
+	 * Number of compiled expressions dropped to make room for newer ones
+	 */
+	public long expressionEvictions;
+
+	/**
+	 * Number of requests whose compiled expression was reused
+	 */
+	public long reused;
+
+	/**
+	 * Largest number of results, and of compiled expressions, kept
+	 */
+	int capacity;
+
+	/**
+	 * Whether requests are looked up at all
+	 */
+	boolean enabled;
+
+	/**
+	 * Compiled expressions by tokens, least recently used first
+	 */
+	LinkedHashMap<String,Expression> expressions;
+
+	/**
+	 * Results by tokens and symbol values file, least recently used first
+	 */
+	LinkedHashMap<String,Float> results;
+
+	/**
+	 * Initializes an empty, enabled cache.
+	 *
+	 * @param capacity Largest number of results, and of compiled expressions, kept
+	 * @throws IllegalArgumentException If capacity is not positive
+	 */
+	public ExpressionCache(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		enabled = true;
+		expressions = new LinkedHashMap<String,Expression>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String,Expression> eldest) {
+				if (size() > capacity) {
+					expressionEvictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		results = new LinkedHashMap<String,Float>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String,Float> eldest) {
+				if (size() > capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Evaluates an expression with symbol values loaded from a file, or with all
+	 * symbols zero if there is no file.
+	 *
+	 * @param text Expression
+	 * @param file Name of the symbol values file, or null or empty for none
+	 * @return Value of the expression
+	 * @throws IOException If the symbol values file cannot be read or is malformed
+	 * @throws IllegalArgumentException If the expression is malformed
+	 */
+	public synchronized float evaluate(String text, String file)
+	throws IOException {
+		if (!enabled) {
+			misses++;
+			Expression expr = new Expression(text);
+			expr.buildSymbols();
+			load(expr, file);
+			return expr.evaluate();
+		}
+
+		String normal = normalize(text);
+		String source = source(file);
+		String key = normal + '\n' + source;
+		Float value = results.get(key);
+		if (value != null) {
+			hits++;
+			return value;
+		}
+
+		misses++;
+		Expression expr = expressions.get(normal);
+		if (expr != null) {
+			reused++;
+			expr.symbols.clearValues();
+		} else {
+			expr = new Expression(text);
+			expr.buildSymbols();
+			expr.compile();
+			expressions.put(normal, expr);
+		}
+		load(expr, file);
+		float result = expr.evaluate();
+		// not kept if the file changed while it was being read
+		if (source.equals(source(file))) {
+			results.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the tokens of an expression separated by single spaces, so that texts
+	 * that differ only in whitespace between tokens are the same, while "a b" stays
+	 * apart from "ab".
+	 */
+	static String normalize(String text) {
+		ExpressionTokens tokens = new ExpressionTokens(text);
+		StringBuilder sb = new StringBuilder(text.length());
+		for (int i=0; i < tokens.count; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(text, tokens.starts[i], tokens.ends[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Identifies a symbol values file by its path, modification time and length, or
+	 * returns an empty string if there is no file. A file that does not exist gets its
+	 * name only, and fails when it is loaded.
+	 */
+	private static String source(String file)
+	throws IOException {
+		if (file == null || file.length() == 0) {
+			return "";
+		}
+		File f = new File(file);
+		if (!f.isFile()) {
+			return file;
+		}
+		return f.getCanonicalPath() + '#' + f.lastModified() + '#' + f.length();
+	}
+
+	/**
+	 * Loads symbol values from a file into an expression, if there is a file.
+	 */
+	private static void load(Expression expr, String file)
+	throws IOException {
+		if (file != null && file.length() != 0) {
+			expr.loadSymbolValues(file);
+		}
+	}
+
+	/**
+	 * Turns lookups on or off. Turning them off drops everything kept so far, but
+	 * not the counters.
+	 *
+	 * @param enabled True to look up requests, false to evaluate every one
+	 */
+	public synchronized void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	/**
+	 * Tells whether requests are looked up.
+	 *
+	 * @return True if enabled
+	 */
+	public synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Drops all compiled expressions and results.
+	 */
+	public synchronized void clear() {
+		expressions.clear();
+		results.clear();
+	}
+
+	/**
+	 * Returns the number of results kept.
+	 *
+	 * @return Number of results
+	 */
+	public synchronized int size() {
+		return results.size();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return "hits=" + hits + " misses=" + misses + " evictions=" + evictions +
+				" expressionEvictions=" + expressionEvictions + " reused=" + reused + " size=" + results.size() + "/" + capacity +
+				(enabled ? "" : " (disabled)");
+	}
+}
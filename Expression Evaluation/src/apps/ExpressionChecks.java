@@ -0,0 +1,278 @@
+package apps;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import structures.DirectIntArray;
+import structures.SparseIntArray;
+
+/**
+ * Checks that every way of evaluating an Expression gives the result of compiled
+ * evaluation on the inputs that ExpressionBenchmark times, so that the benchmark times
+ * only code that works and its timing loops do nothing but time. Every check throws an
+ * IllegalStateException naming the case and what differs. Run on its own, this checks
+ * the etest cases and the generated expressions without timing anything.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+class ExpressionChecks {
+
+	/**
+	 * Runs the checks of the etest cases, the large generated expressions and the lazy
+	 * case, and prints one line per case checked.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String[] c: ExpressionBenchmark.CASES) {
+			checkCase(c[0], c[0], c[1]);
+			System.out.println(c[0] + " ok");
+		}
+		for (String[] c: ExpressionBenchmark.largeCases()) {
+			checkLarge(c[0], "etest1.txt", c[1]);
+			System.out.println(c[0] + " ok");
+		}
+		String name = "lazy-zeros-" + ExpressionBenchmark.LAZY_TERMS;
+		checkLazy(name, ExpressionBenchmark.load("etest1.txt", ExpressionBenchmark.generateLazy()));
+		System.out.println(name + " ok");
+	}
+
+	/**
+	 * Checks the string, generated, batch, double, lazy and cached evaluation of an
+	 * etest case against compiled evaluation.
+	 *
+	 * @param name Case name
+	 * @param file Symbol values file
+	 * @param text Expression
+	 */
+	static void checkCase(String name, String file, String text) throws IOException {
+		Expression expr = ExpressionBenchmark.load(file, text);
+		float expected = expr.evaluate();
+		if (expr.interpret() != expected) {
+			throw new IllegalStateException(name + ": compiled and string results differ");
+		}
+		Expression generated = ExpressionBenchmark.load(file, text);
+		if (!generated.generate()) {
+			throw new IllegalStateException(name + ": no class generated");
+		}
+		if (generated.evaluate() != expected) {
+			throw new IllegalStateException(name + ": generated and compiled results differ");
+		}
+		int rows = ExpressionBenchmark.BATCH_ROWS;
+		if (expr.evaluateBatch(ExpressionBenchmark.columns(expr, rows))[rows-1] != expected) {
+			throw new IllegalStateException(name + ": batch and compiled results differ");
+		}
+		if (Math.abs(expr.evaluateDouble() - expected) > 1e-4 * Math.max(1, Math.abs(expected))) {
+			throw new IllegalStateException(name + ": double and compiled results differ");
+		}
+		checkLazy(name, expr);
+		ExpressionCache cache = new ExpressionCache(16);
+		ExpressionCache uncached = new ExpressionCache(16);
+		uncached.setEnabled(false);
+		if (cache.evaluate(text, file) != expected || cache.evaluate(text, file) != expected ||
+				uncached.evaluate(text, file) != expected) {
+			throw new IllegalStateException(name + ": cached and compiled results differ");
+		}
+	}
+
+	/**
+	 * Checks lazy evaluation against compiled evaluation, to the sign of an infinity;
+	 * only a zero result may differ in sign, as LazyEvaluation explains.
+	 *
+	 * @param name Case name
+	 * @param expr Expression with loaded symbol values
+	 */
+	static void checkLazy(String name, Expression expr) {
+		float lazy = expr.evaluateLazy();
+		float expected = expr.evaluate();
+		if (Float.compare(lazy, expected) != 0 && !(lazy == 0 && expected == 0)) {
+			throw new IllegalStateException(name + ": lazy and compiled results differ");
+		}
+	}
+
+	/**
+	 * Checks the parallel, incremental, optimized and generated evaluation of a large
+	 * expression against compiled evaluation.
+	 *
+	 * @param name Case name
+	 * @param file Symbol values file
+	 * @param text Expression
+	 */
+	static void checkLarge(String name, String file, String text) throws IOException {
+		Expression expr = ExpressionBenchmark.load(file, text);
+		if (Float.compare(expr.evaluate(), expr.evaluateParallel()) != 0) {
+			throw new IllegalStateException(name + ": parallel and sequential results differ");
+		}
+		// a symbol read in one place, so each change dirties one path
+		Expression whole = ExpressionBenchmark.load(file, "(" + text + ") + e");
+		Expression incremental = ExpressionBenchmark.load(file, "(" + text + ") + e");
+		ScalarSymbol e = incremental.scalars.get(incremental.symbols.scalarSlot("e"));
+		for (int i=0; i < 10; i++) {
+			e.value++;
+			whole.scalars.get(whole.symbols.scalarSlot("e")).value = e.value;
+			if (Float.compare(whole.evaluate(), incremental.evaluateIncremental()) != 0) {
+				throw new IllegalStateException(name + ": incremental and compiled results differ");
+			}
+		}
+		Expression optimized = ExpressionBenchmark.load(file, text);
+		optimized.optimize();
+		if (Float.compare(expr.evaluate(), optimized.evaluate()) != 0) {
+			throw new IllegalStateException(name + ": optimized and compiled results differ");
+		}
+		if (optimized.generate() && Float.compare(expr.evaluate(), optimized.evaluate()) != 0) {
+			throw new IllegalStateException(name + ": generated and compiled results differ");
+		}
+	}
+
+	/**
+	 * Checks the string evaluation of a deeply nested expression against compiled
+	 * evaluation.
+	 *
+	 * @param name Case name
+	 * @param expr Expression with loaded symbol values
+	 */
+	static void checkNested(String name, Expression expr) {
+		if (expr.interpret() != expr.evaluate()) {
+			throw new IllegalStateException(name + ": compiled and string results differ");
+		}
+	}
+
+	/**
+	 * Evaluates a frozen expression from many threads at once, each with its own
+	 * bindings and each cycling through the same sets of scalar values from a different
+	 * starting point, and checks every result against the sequential one.
+	 *
+	 * @param name Case name
+	 * @param compiled Frozen expression
+	 * @param names Names of the scalars
+	 * @param values Sets of scalar values, in the order of names
+	 * @param expected Sequential result of each set of values
+	 * @param threads Number of threads
+	 * @param iterations Number of evaluations by each thread
+	 */
+	static void checkConcurrent(String name, final CompiledExpression compiled, final String[] names,
+			final int[][] values, final float[] expected, int threads, final int iterations) {
+		final AtomicInteger mismatches = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int t=0; t < threads; t++) {
+			final int first = t;
+			pool.execute(new Runnable() {
+				public void run() {
+					Bindings bindings = compiled.bindings();
+					for (int j=0; j < iterations; j++) {
+						int k = (first + j) % values.length;
+						for (int i=0; i < names.length; i++) {
+							bindings.setScalar(names[i], values[k][i]);
+						}
+						float result = compiled.evaluate(bindings);
+						if (Float.floatToIntBits(result) != Float.floatToIntBits(expected[k])) {
+							mismatches.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		try {
+			pool.awaitTermination(1, TimeUnit.HOURS);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+		if (mismatches.get() != 0) {
+			throw new IllegalStateException(name + ": " + mismatches.get() +
+					" results differ from sequential evaluation");
+		}
+	}
+
+	/**
+	 * Checks that the Scanner loader and the channel loader read the same array.
+	 *
+	 * @param name Case name
+	 * @param scanned Expression loaded by the Scanner loader
+	 * @param channeled Expression loaded by the channel loader
+	 */
+	static void checkLoaders(String name, Expression scanned, Expression channeled) {
+		if (!Arrays.equals(scanned.arrays.get(0).values, channeled.arrays.get(0).values)) {
+			throw new IllegalStateException(name + ": loaders read different values");
+		}
+	}
+
+	/**
+	 * Checks that a long array with few elements set is held sparse, and that the
+	 * compiled and string evaluation of an expression on it give the expected value.
+	 *
+	 * @param name Case name
+	 * @param sparse Expression whose first array is long and has few elements set
+	 * @param expected Expected value
+	 */
+	static void checkSparse(String name, Expression sparse, float expected) {
+		if (!(sparse.arrays.get(0).store instanceof SparseIntArray)) {
+			throw new IllegalStateException(name + ": array is not sparse");
+		}
+		if (sparse.evaluate() != expected || sparse.interpret() != expected) {
+			throw new IllegalStateException(name + ": wrong result " + sparse.evaluate());
+		}
+	}
+
+	/**
+	 * Checks that a long dense array was loaded off the heap without taking more than
+	 * the given heap, and that compiled and frozen evaluation on it give the result of
+	 * the same array held in an int[].
+	 *
+	 * @param name Case name
+	 * @param direct Expression whose first array was loaded off the heap
+	 * @param heap Same expression with the array in an int[]
+	 * @param loadBytes Heap allocated by the load, or -1 if unknown
+	 * @param maxBytes Largest heap the load may allocate
+	 */
+	static void checkDirect(String name, Expression direct, Expression heap, long loadBytes, long maxBytes) {
+		if (loadBytes > maxBytes) {
+			throw new IllegalStateException(name + ": load took " + loadBytes + " bytes of heap");
+		}
+		if (!(direct.arrays.get(0).store instanceof DirectIntArray)) {
+			throw new IllegalStateException(name + ": array is not off the heap");
+		}
+		CompiledExpression frozen = direct.freeze();
+		if (direct.evaluate() != heap.evaluate() || frozen.evaluate(frozen.bindings()) != heap.evaluate()) {
+			throw new IllegalStateException(name + ": results differ from int[]");
+		}
+	}
+
+	/**
+	 * Measures the bytes allocated by an operation after a warmup round, and fails if
+	 * the operation allocates.
+	 *
+	 * @param name Case name
+	 * @param method Method name
+	 * @param iterations Number of operations per round
+	 * @param op Operation to measure
+	 * @return Bytes allocated per operation, or -1 if the JVM cannot count allocated
+	 *         bytes per thread
+	 * @throws IllegalStateException If the operation allocates
+	 */
+	static double checkNoAllocation(String name, String method, int iterations, Runnable op) {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)mx;
+		long id = Thread.currentThread().getId();
+		for (int i=0; i < iterations; i++) {
+			op.run();
+		}
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i=0; i < iterations; i++) {
+			op.run();
+		}
+		double perOp = (double)(threads.getThreadAllocatedBytes(id) - before) / iterations;
+		if (perOp >= 1) {
+			throw new IllegalStateException(name + ": " + method + " allocates " + perOp + " bytes per call");
+		}
+		return perOp;
+	}
+}
@@ -0,0 +1,202 @@
+package apps;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import structures.Stack;
+
+/**
+ * Counters and nanosecond timers for the phases of working with an Expression, turned
+ * on by Expression.enableMetrics. When metrics are off, each phase costs one null check.
+ * The work counts of an evaluation, array reads and arithmetic operations, are found once
+ * per compiled program by walking it, so evaluation itself is not slowed down to count
+ * them. Like Expression, this is meant for one thread at a time; snapshot gives a copy
+ * that can be handed to another.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class ExpressionMetrics {
+
+	/**
+	 * Number of buildSymbols calls, and total time spent in them
+	 */
+	public long buildSymbolsCalls, buildSymbolsNanos;
+
+	/**
+	 * Part of the buildSymbols time spent reading the string into tokens
+	 */
+	public long tokenizeNanos;
+
+	/**
+	 * Number of tokens read by the last buildSymbols
+	 */
+	public int tokens;
+
+	/**
+	 * Number of loadSymbolValues calls, and total time spent in them
+	 */
+	public long loadCalls, loadNanos;
+
+	/**
+	 * Number of compilations, and total time spent in them
+	 */
+	public long compileCalls, compileNanos;
+
+	/**
+	 * Number of evaluations by the compiled program, any method, and total time spent
+	 * in them; a batch counts as one evaluation per row
+	 */
+	public long evaluateCalls, evaluateNanos;
+
+	/**
+	 * Number of evaluations by the string evaluator, and total time spent in them
+	 */
+	public long interpretCalls, interpretNanos;
+
+	/**
+	 * Number of name lookups in the symbol table
+	 */
+	public long symbolLookups;
+
+	/**
+	 * Total array elements read by evaluations of the compiled program
+	 */
+	public long arrayReads;
+
+	/**
+	 * Total arithmetic operations done by evaluations of the compiled program
+	 */
+	public long operations;
+
+	/**
+	 * Height of the compiled program, in nodes
+	 */
+	public int treeHeight;
+
+	/**
+	 * Deepest nesting of brackets in the expression, which is the deepest recursion of
+	 * the string evaluator
+	 */
+	public int nestingDepth;
+
+	/**
+	 * Largest number of items on the operand and operator stacks of the string evaluator
+	 */
+	public int operandStackPeak, operatorStackPeak;
+
+	/**
+	 * Program whose work counts are in arraysPerEvaluation and operationsPerEvaluation
+	 */
+	ExpressionNode counted;
+
+	/**
+	 * Array reads and operations done by one evaluation of the counted program
+	 */
+	int arraysPerEvaluation, operationsPerEvaluation;
+
+	/**
+	 * Adds one evaluation of a program, or one per row of a batch, to the counters.
+	 *
+	 * @param program Program evaluated, or null to count no work
+	 * @param rows Number of evaluations
+	 * @param nanos Time taken
+	 */
+	void evaluated(ExpressionNode program, int rows, long nanos) {
+		evaluateCalls += rows;
+		evaluateNanos += nanos;
+		if (program == null) {
+			return;
+		}
+		if (counted != program) {
+			count(program);
+		}
+		arrayReads += (long)arraysPerEvaluation * rows;
+		operations += (long)operationsPerEvaluation * rows;
+	}
+
+	/**
+	 * Counts the array reads and operations of one evaluation of a program, in which
+	 * each shared node is computed once, and finds the height of the program.
+	 */
+	private void count(ExpressionNode program) {
+		counted = program;
+		arraysPerEvaluation = 0;
+		operationsPerEvaluation = 0;
+		treeHeight = program.height();
+		Set<ExpressionNode> seen = Collections.newSetFromMap(new IdentityHashMap<ExpressionNode,Boolean>());
+		Stack<ExpressionNode> work = new Stack<ExpressionNode>();
+		work.push(program);
+		while (!work.isEmpty()) {
+			ExpressionNode n = work.pop();
+			if (n.shared && !seen.add(n)) {
+				continue;
+			}
+			if (n.chain != null) {
+				operationsPerEvaluation += n.chain.length;
+				work.push(n.chain[0].left);
+				for (ExpressionNode c: n.chain) {
+					work.push(c.right);
+				}
+				continue;
+			}
+			if (n.type == 'a') {
+				arraysPerEvaluation++;
+			} else if (n.isOperator()) {
+				operationsPerEvaluation++;
+			}
+			if (n.left != null) {
+				work.push(n.left);
+			}
+			if (n.right != null) {
+				work.push(n.right);
+			}
+		}
+	}
+
+	/**
+	 * Returns a copy of the current values.
+	 *
+	 * @return Snapshot of the metrics
+	 */
+	public ExpressionMetrics snapshot() {
+		ExpressionMetrics m = new ExpressionMetrics();
+		m.buildSymbolsCalls = buildSymbolsCalls;
+		m.buildSymbolsNanos = buildSymbolsNanos;
+		m.tokenizeNanos = tokenizeNanos;
+		m.tokens = tokens;
+		m.loadCalls = loadCalls;
+		m.loadNanos = loadNanos;
+		m.compileCalls = compileCalls;
+		m.compileNanos = compileNanos;
+		m.evaluateCalls = evaluateCalls;
+		m.evaluateNanos = evaluateNanos;
+		m.interpretCalls = interpretCalls;
+		m.interpretNanos = interpretNanos;
+		m.symbolLookups = symbolLookups;
+		m.arrayReads = arrayReads;
+		m.operations = operations;
+		m.treeHeight = treeHeight;
+		m.nestingDepth = nestingDepth;
+		m.operandStackPeak = operandStackPeak;
+		m.operatorStackPeak = operatorStackPeak;
+		return m;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "buildSymbols=" + buildSymbolsCalls + "/" + buildSymbolsNanos + "ns" +
+				" tokenize=" + tokenizeNanos + "ns tokens=" + tokens +
+				" load=" + loadCalls + "/" + loadNanos + "ns" +
+				" compile=" + compileCalls + "/" + compileNanos + "ns" +
+				" evaluate=" + evaluateCalls + "/" + evaluateNanos + "ns" +
+				" interpret=" + interpretCalls + "/" + interpretNanos + "ns" +
+				" symbolLookups=" + symbolLookups +
+				" arrayReads=" + arrayReads + " operations=" + operations +
+				" treeHeight=" + treeHeight + " nestingDepth=" + nestingDepth +
+				" operandStackPeak=" + operandStackPeak + " operatorStackPeak=" + operatorStackPeak;
+	}
+}
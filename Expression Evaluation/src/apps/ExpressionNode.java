@@ -0,0 +1,509 @@
+package apps;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Encapsulates a node of a compiled expression tree. Leaf nodes are constants,
+ * scalar variables or array variables (whose subscript is the left child); every
+ * other node is a binary operator applied to its left and right children.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class ExpressionNode {
+
+	/**
+	 * Node type: 'c' for constant, 's' for scalar, 'a' for array, or one of the
+	 * operators '+', '-', '*', '/'
+	 */
+	char type;
+
+	/**
+	 * Value of a constant node
+	 */
+	float value;
+
+	/**
+	 * Value of a constant node, as a double, for the double and long modes
+	 */
+	double exact;
+
+	/**
+	 * Slot of the symbol read by a scalar or array node
+	 */
+	int slot;
+
+	/**
+	 * Name of the symbol read by a scalar or array node
+	 */
+	String name;
+
+	/**
+	 * Symbol read by an array node, whose elements are read from its store when there
+	 * are no values for its slot
+	 */
+	ArraySymbol symbol;
+
+	/**
+	 * Left operand of an operator node, or subscript of an array node
+	 */
+	ExpressionNode left;
+
+	/**
+	 * Right operand of an operator node
+	 */
+	ExpressionNode right;
+
+	/**
+	 * Number of nodes in the subtree rooted at this node
+	 */
+	int size;
+
+	/**
+	 * For the topmost operator of a chain of operators down the left side of the tree,
+	 * such as a+b-c*d, the operator nodes of the chain from the bottom up, ending with
+	 * this node; null for every other node. Chains are evaluated with a loop instead of
+	 * recursion, so that long sums do not overflow the stack.
+	 */
+	ExpressionNode[] chain;
+
+	/**
+	 * Whether this node is a subexpression shared by several parents after optimization.
+	 * A shared node is computed once per evaluation, before the rest of the expression,
+	 * and its value kept in memo.
+	 */
+	boolean shared;
+
+	/**
+	 * Value of a shared node in the current evaluation
+	 */
+	float memo;
+
+	/**
+	 * Value of this node in the last incremental evaluation
+	 */
+	float cached;
+
+	/**
+	 * Whether cached is out of date because a symbol below this node changed
+	 */
+	boolean dirty;
+
+	/**
+	 * Nodes that have this node as an operand, set up for incremental evaluation
+	 */
+	ArrayList<ExpressionNode> parents;
+
+	/**
+	 * Whether the sign of a zero value of this node can change the result, because the
+	 * value reaches the divisor of a division; set up for lazy evaluation
+	 */
+	boolean signedZero;
+
+	/**
+	 * Initializes a new node of the given type with no children.
+	 *
+	 * @param type Node type
+	 */
+	ExpressionNode(char type) {
+		this.type = type;
+		size = 1;
+	}
+
+	/**
+	 * Tells whether this node is one of the operators '+', '-', '*', '/'.
+	 *
+	 * @return True for an operator node, false for a leaf or array node
+	 */
+	boolean isOperator() {
+		return type == '+' || type == '-' || type == '*' || type == '/';
+	}
+
+	/**
+	 * Applies an operator to two values.
+	 *
+	 * @param op One of '+', '-', '*', '/'
+	 * @param a Left operand
+	 * @param b Right operand
+	 * @return Result
+	 */
+	static float apply(char op, float a, float b) {
+		switch (op) {
+		case '+': return a + b;
+		case '-': return a - b;
+		case '*': return a * b;
+		case '/': return a / b;
+		default: throw new IllegalStateException("unknown operator " + op);
+		}
+	}
+
+	/**
+	 * Applies an operator to two double values.
+	 *
+	 * @param op One of '+', '-', '*', '/'
+	 * @param a Left operand
+	 * @param b Right operand
+	 * @return Result
+	 */
+	static double apply(char op, double a, double b) {
+		switch (op) {
+		case '+': return a + b;
+		case '-': return a - b;
+		case '*': return a * b;
+		case '/': return a / b;
+		default: throw new IllegalStateException("unknown operator " + op);
+		}
+	}
+
+	/**
+	 * Applies an operator to two long values exactly. Division truncates toward zero,
+	 * as long division does.
+	 *
+	 * @param op One of '+', '-', '*', '/'
+	 * @param a Left operand
+	 * @param b Right operand
+	 * @return Result
+	 * @throws ArithmeticException If the result overflows a long, or on division by zero
+	 */
+	static long apply(char op, long a, long b) {
+		switch (op) {
+		case '+': return Math.addExact(a, b);
+		case '-': return Math.subtractExact(a, b);
+		case '*': return Math.multiplyExact(a, b);
+		case '/':
+			if (a == Long.MIN_VALUE && b == -1) {
+				throw new ArithmeticException("long overflow");
+			}
+			return a / b;
+		default: throw new IllegalStateException("unknown operator " + op);
+		}
+	}
+
+	/**
+	 * Sets up the chain of every chain of operators in the subtree rooted at this node.
+	 * A chain stops at a shared node, which becomes the bottom operand of the chain.
+	 *
+	 * @param visited Nodes already set up, so that shared nodes are set up only once
+	 */
+	void unrollChains(Set<ExpressionNode> visited) {
+		if (!visited.add(this)) {
+			return;
+		}
+		if (!isOperator()) {
+			if (left != null) {
+				left.unrollChains(visited);
+			}
+			return;
+		}
+		ArrayList<ExpressionNode> nodes = new ArrayList<ExpressionNode>();
+		ExpressionNode n = this;
+		while (n.isOperator() && (n == this || !n.shared)) {
+			nodes.add(n);
+			n.chain = null;
+			n = n.left;
+		}
+		n.unrollChains(visited);
+		chain = new ExpressionNode[nodes.size()];
+		for (int i=0; i < chain.length; i++) {
+			chain[i] = nodes.get(chain.length-1-i);
+			chain[i].right.unrollChains(visited);
+		}
+	}
+
+	/**
+	 * Evaluates the subtree rooted at this node against the given symbol values. For a
+	 * shared node, this is the value computed earlier in the same evaluation.
+	 *
+	 * @param scalars Scalar values, by slot
+	 * @param arrays Array values, by slot
+	 * @return Value of the subtree
+	 */
+	float evaluate(int[] scalars, int[][] arrays) {
+		return shared ? memo : compute(scalars, arrays);
+	}
+
+	/**
+	 * Reads an element of the array of this array node.
+	 *
+	 * @param values Values of the array, or null to read from the store of the symbol
+	 * @param index Index of the element
+	 * @return Element
+	 */
+	int element(int[] values, int index) {
+		return values != null ? values[index] : symbol.get(index);
+	}
+
+	/**
+	 * Computes the value of the subtree rooted at this node, even if it is shared.
+	 *
+	 * @param scalars Scalar values, by slot
+	 * @param arrays Array values, by slot
+	 * @return Value of the subtree
+	 */
+	float compute(int[] scalars, int[][] arrays) {
+		switch (type) {
+		case 'c': return value;
+		case 's': return scalars[slot];
+		case 'a': return element(arrays[slot], (int)left.evaluate(scalars, arrays));
+		}
+		if (chain != null) {
+			float result = chain[0].left.evaluate(scalars, arrays);
+			for (ExpressionNode n: chain) {
+				result = apply(n.type, result, n.right.evaluate(scalars, arrays));
+			}
+			return result;
+		}
+		switch (type) {
+		case '+': return left.evaluate(scalars, arrays) + right.evaluate(scalars, arrays);
+		case '-': return left.evaluate(scalars, arrays) - right.evaluate(scalars, arrays);
+		case '*': return left.evaluate(scalars, arrays) * right.evaluate(scalars, arrays);
+		case '/': return left.evaluate(scalars, arrays) / right.evaluate(scalars, arrays);
+		default: throw new IllegalStateException("unknown node type " + type);
+		}
+	}
+
+	/**
+	 * Evaluates the subtree rooted at this node in double arithmetic. Shared nodes are
+	 * computed again wherever they appear, since memo holds float values.
+	 *
+	 * @param scalars Scalar values, by slot
+	 * @param arrays Array values, by slot
+	 * @return Value of the subtree
+	 */
+	double evaluateDouble(int[] scalars, int[][] arrays) {
+		switch (type) {
+		case 'c': return exact;
+		case 's': return scalars[slot];
+		case 'a': return element(arrays[slot], (int)left.evaluateDouble(scalars, arrays));
+		}
+		if (chain != null) {
+			double result = chain[0].left.evaluateDouble(scalars, arrays);
+			for (ExpressionNode n: chain) {
+				result = apply(n.type, result, n.right.evaluateDouble(scalars, arrays));
+			}
+			return result;
+		}
+		return apply(type, left.evaluateDouble(scalars, arrays), right.evaluateDouble(scalars, arrays));
+	}
+
+	/**
+	 * Evaluates the subtree rooted at this node in exact long arithmetic, never
+	 * converting to floating point. Shared nodes are computed again wherever they appear.
+	 *
+	 * @param scalars Scalar values, by slot
+	 * @param arrays Array values, by slot
+	 * @return Value of the subtree
+	 * @throws ArithmeticException If a result overflows a long, a divisor is zero,
+	 *         a constant is not a whole number or a subscript does not fit in an int
+	 */
+	long evaluateLong(int[] scalars, int[][] arrays) {
+		switch (type) {
+		case 'c':
+			long whole = (long)exact;
+			if (whole != exact) {
+				throw new ArithmeticException("constant " + exact + " is not a whole number");
+			}
+			return whole;
+		case 's': return scalars[slot];
+		case 'a': return element(arrays[slot], Math.toIntExact(left.evaluateLong(scalars, arrays)));
+		}
+		if (chain != null) {
+			long result = chain[0].left.evaluateLong(scalars, arrays);
+			for (ExpressionNode n: chain) {
+				result = apply(n.type, result, n.right.evaluateLong(scalars, arrays));
+			}
+			return result;
+		}
+		return apply(type, left.evaluateLong(scalars, arrays), right.evaluateLong(scalars, arrays));
+	}
+
+	/**
+	 * Evaluates the subtree rooted at this node, recomputing only the nodes that are
+	 * dirty and keeping their new values in cached. In a chain, only the dirty operators
+	 * at the top of the chain are recomputed, starting from the cached value below them.
+	 *
+	 * @param scalars Scalar values, by slot
+	 * @param arrays Array values, by slot
+	 * @return Value of the subtree
+	 */
+	float evaluateCached(int[] scalars, int[][] arrays) {
+		if (!dirty) {
+			return cached;
+		}
+		if (chain != null) {
+			int j = chain.length-1;
+			while (j > 0 && chain[j-1].dirty) {
+				j--;
+			}
+			float result = j == 0 ? chain[0].left.evaluateCached(scalars, arrays) : chain[j-1].cached;
+			for (int i=j; i < chain.length; i++) {
+				result = apply(chain[i].type, result, chain[i].right.evaluateCached(scalars, arrays));
+				chain[i].cached = result;
+				chain[i].dirty = false;
+			}
+			return result;
+		}
+		switch (type) {
+		case 'c': cached = value; break;
+		case 's': cached = scalars[slot]; break;
+		case 'a': cached = element(arrays[slot], (int)left.evaluateCached(scalars, arrays)); break;
+		default: cached = apply(type, left.evaluateCached(scalars, arrays), right.evaluateCached(scalars, arrays));
+		}
+		dirty = false;
+		return cached;
+	}
+
+	/**
+	 * Evaluates the subtree rooted at this node for a block of consecutive rows, one
+	 * column at a time, so that every operator is a simple loop over float arrays.
+	 *
+	 * @param cols Columnar symbol values
+	 * @param from First row of the block
+	 * @param len Number of rows in the block
+	 * @param out Receives the value of each row of the block, starting at index 0
+	 * @param scratch One work array per tree level, each at least len long
+	 * @param depth Level of this node in the tree
+	 */
+	void evaluate(SymbolColumns cols, int from, int len, float[] out, float[][] scratch, int depth) {
+		switch (type) {
+		case 'c':
+			for (int i=0; i < len; i++) {
+				out[i] = value;
+			}
+			return;
+		case 's': {
+			Object col = cols.scalarColumns[slot];
+			if (col instanceof int[]) {
+				int[] ints = (int[])col;
+				for (int i=0; i < len; i++) {
+					out[i] = ints[from+i];
+				}
+			} else if (col instanceof float[]) {
+				System.arraycopy((float[])col, from, out, 0, len);
+			} else {
+				float v = cols.scalarValues[slot];
+				for (int i=0; i < len; i++) {
+					out[i] = v;
+				}
+			}
+			return;
+		}
+		case 'a': {
+			float[] sub = scratch[depth];
+			left.evaluate(cols, from, len, sub, scratch, depth+1);
+			int[][] col = cols.arrayColumns[slot];
+			if (col != null) {
+				for (int i=0; i < len; i++) {
+					out[i] = col[from+i][(int)sub[i]];
+				}
+			} else if (cols.arrayValues[slot] != null) {
+				int[] values = cols.arrayValues[slot];
+				for (int i=0; i < len; i++) {
+					out[i] = values[(int)sub[i]];
+				}
+			} else {
+				for (int i=0; i < len; i++) {
+					out[i] = symbol.get((int)sub[i]);
+				}
+			}
+			return;
+		}
+		}
+		if (chain != null) {
+			chain[0].left.evaluate(cols, from, len, out, scratch, depth+1);
+			for (ExpressionNode n: chain) {
+				n.apply(cols, from, len, out, scratch, depth);
+			}
+			return;
+		}
+		left.evaluate(cols, from, len, out, scratch, depth+1);
+		apply(cols, from, len, out, scratch, depth);
+	}
+
+	/**
+	 * Evaluates the right operand of this operator node for a block of rows, and
+	 * applies the operator to it and the left operand values already in out.
+	 *
+	 * @param cols Columnar symbol values
+	 * @param from First row of the block
+	 * @param len Number of rows in the block
+	 * @param out Holds the left operand values, and receives the results
+	 * @param scratch One work array per tree level, each at least len long
+	 * @param depth Level of this node in the tree
+	 */
+	private void apply(SymbolColumns cols, int from, int len, float[] out, float[][] scratch, int depth) {
+		float[] rhs = scratch[depth];
+		right.evaluate(cols, from, len, rhs, scratch, depth+1);
+		switch (type) {
+		case '+':
+			for (int i=0; i < len; i++) {
+				out[i] += rhs[i];
+			}
+			break;
+		case '-':
+			for (int i=0; i < len; i++) {
+				out[i] -= rhs[i];
+			}
+			break;
+		case '*':
+			for (int i=0; i < len; i++) {
+				out[i] *= rhs[i];
+			}
+			break;
+		case '/':
+			for (int i=0; i < len; i++) {
+				out[i] /= rhs[i];
+			}
+			break;
+		default:
+			throw new IllegalStateException("unknown node type " + type);
+		}
+	}
+
+	/**
+	 * Returns the number of levels in the subtree rooted at this node.
+	 *
+	 * @return Height of the subtree, 1 for a leaf
+	 */
+	int height() {
+		if (chain != null) {
+			int h = chain[0].left.height();
+			for (ExpressionNode n: chain) {
+				h = Math.max(h, n.right.height());
+			}
+			return h + 1;
+		}
+		int h = 0;
+		if (left != null) {
+			h = left.height();
+		}
+		if (right != null) {
+			h = Math.max(h, right.height());
+		}
+		return h + 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		switch (type) {
+		case 'c': return Float.toString(value);
+		case 's': return name;
+		case 'a': return name + "[" + left + "]";
+		}
+		if (chain != null) {
+			StringBuilder sb = new StringBuilder();
+			for (int i=0; i < chain.length; i++) {
+				sb.append('(');
+			}
+			sb.append(chain[0].left);
+			for (ExpressionNode n: chain) {
+				sb.append(n.type).append(n.right).append(')');
+			}
+			return sb.toString();
+		}
+		return "(" + left + type + right + ")";
+	}
+}
@@ -0,0 +1,187 @@
+package apps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Optimizes a compiled expression tree. Operators whose operands are both constants
+ * are folded into constants, computed with the same float arithmetic as evaluation,
+ * and structurally identical subexpressions are merged into a single node, so the
+ * tree becomes a graph in which every distinct subexpression appears once. Merged
+ * operator and array nodes are marked shared, so they are computed once per evaluation.
+ * The counters tell how much was eliminated.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class ExpressionOptimizer {
+
+	/**
+	 * Number of nodes in the tree before optimization
+	 */
+	public int nodesBefore;
+
+	/**
+	 * Number of distinct nodes after optimization
+	 */
+	public int nodesAfter;
+
+	/**
+	 * Number of operators folded into constants
+	 */
+	public int folded;
+
+	/**
+	 * Number of times a node was replaced by an identical node already seen
+	 */
+	public int deduplicated;
+
+	/**
+	 * Number of shared nodes, each computed once per evaluation
+	 */
+	public int sharedCount;
+
+	/**
+	 * Distinct nodes by structure: type, value or slot, and the ids of the children
+	 */
+	HashMap<String,ExpressionNode> distinct;
+
+	/**
+	 * Id of each distinct node
+	 */
+	IdentityHashMap<ExpressionNode,Integer> ids;
+
+	/**
+	 * Number of parents of each distinct node
+	 */
+	IdentityHashMap<ExpressionNode,Integer> parents;
+
+	/**
+	 * Distinct nodes in the order they were created, children before parents
+	 */
+	ArrayList<ExpressionNode> created;
+
+	/**
+	 * Shared nodes after optimization, children before parents
+	 */
+	ExpressionNode[] shared;
+
+	/**
+	 * Initializes an optimizer with zero counters.
+	 */
+	ExpressionOptimizer() {
+		distinct = new HashMap<String,ExpressionNode>();
+		ids = new IdentityHashMap<ExpressionNode,Integer>();
+		parents = new IdentityHashMap<ExpressionNode,Integer>();
+		created = new ArrayList<ExpressionNode>();
+	}
+
+	/**
+	 * Optimizes a compiled tree. The given tree is not changed.
+	 *
+	 * @param root Root of the compiled tree
+	 * @return Root of the optimized graph
+	 */
+	ExpressionNode optimize(ExpressionNode root) {
+		nodesBefore = root.size;
+		ExpressionNode result = visit(root);
+
+		// constants consumed by folding have no parents and are not part of the result
+		ArrayList<ExpressionNode> list = new ArrayList<ExpressionNode>();
+		for (ExpressionNode n: created) {
+			Integer count = parents.get(n);
+			if (n == result || count != null) {
+				nodesAfter++;
+			}
+			if (n != result && count != null && count > 1 && (n.isOperator() || n.type == 'a')) {
+				n.shared = true;
+				list.add(n);
+			}
+		}
+		shared = list.toArray(new ExpressionNode[list.size()]);
+		sharedCount = shared.length;
+		result.unrollChains(Collections.newSetFromMap(new IdentityHashMap<ExpressionNode,Boolean>()));
+		return result;
+	}
+
+	/**
+	 * Builds the optimized equivalent of a node of the compiled tree.
+	 */
+	private ExpressionNode visit(ExpressionNode n) {
+		if (n.chain != null) {
+			ExpressionNode result = visit(n.chain[0].left);
+			for (ExpressionNode c: n.chain) {
+				result = operator(c.type, result, visit(c.right));
+			}
+			return result;
+		}
+		switch (n.type) {
+		case 'c': return constant(n.value);
+		case 's': return intern(n.type, n.slot, n.name, 0, null, null);
+		case 'a':
+			ExpressionNode node = intern(n.type, n.slot, n.name, 0, visit(n.left), null);
+			node.symbol = n.symbol;
+			return node;
+		default: return operator(n.type, visit(n.left), visit(n.right));
+		}
+	}
+
+	/**
+	 * Returns the node for an operator, folding it if both operands are constants.
+	 */
+	private ExpressionNode operator(char op, ExpressionNode left, ExpressionNode right) {
+		if (left.type == 'c' && right.type == 'c') {
+			folded++;
+			return constant(ExpressionNode.apply(op, left.value, right.value));
+		}
+		return intern(op, 0, null, 0, left, right);
+	}
+
+	/**
+	 * Returns the node for a constant.
+	 */
+	private ExpressionNode constant(float value) {
+		return intern('c', 0, null, value, null, null);
+	}
+
+	/**
+	 * Returns the distinct node with the given structure, creating it if there is none.
+	 */
+	private ExpressionNode intern(char type, int slot, String name, float value,
+			ExpressionNode left, ExpressionNode right) {
+		String key = type + ":" + slot + ":" + Float.floatToIntBits(value) + ":" +
+				(left == null ? -1 : ids.get(left)) + ":" + (right == null ? -1 : ids.get(right));
+		ExpressionNode node = distinct.get(key);
+		if (node != null) {
+			deduplicated++;
+		} else {
+			node = new ExpressionNode(type);
+			node.slot = slot;
+			node.name = name;
+			node.value = value;
+			node.left = left;
+			node.right = right;
+			if (left != null) {
+				node.size += left.size;
+			}
+			if (right != null) {
+				node.size += right.size;
+			}
+			ids.put(node, created.size());
+			created.add(node);
+			distinct.put(key, node);
+			addParent(left);
+			addParent(right);
+		}
+		return node;
+	}
+
+	private void addParent(ExpressionNode child) {
+		if (child != null) {
+			Integer count = parents.get(child);
+			parents.put(child, count == null ? 1 : count+1);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package apps;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+/**
+ * Compiles the tokens of an expression into a tree of ExpressionNode objects. Every
+ * variable has been bound to its symbol's slot by buildSymbols, so neither the string
+ * nor any names are looked at again. Operators have the usual precedence, and operators
+ * of equal precedence are applied left to right, the same as Expression.evaluate.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+class ExpressionParser {
+
+	/**
+	 * Tokens of the expression being compiled, with names bound to slots
+	 */
+	ExpressionTokens tokens;
+
+	/**
+	 * Index of the next token to be read
+	 */
+	int pos;
+
+	/**
+	 * Symbols that variables are resolved against
+	 */
+	SymbolTable symbols;
+
+	/**
+	 * Initializes a parser for the given tokens and symbols.
+	 *
+	 * @param tokens Tokens of the expression, whose names have slots in symbols
+	 * @param symbols Symbols of the expression
+	 */
+	ExpressionParser(ExpressionTokens tokens, SymbolTable symbols) {
+		this.tokens = tokens;
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Compiles the whole expression.
+	 *
+	 * @return Root of the expression tree
+	 * @throws IllegalArgumentException If the expression is malformed
+	 */
+	ExpressionNode parse() {
+		pos = 0;
+		ExpressionNode root = parseSum();
+		if (pos != tokens.count) {
+			throw unexpected();
+		}
+		root.unrollChains(Collections.newSetFromMap(new IdentityHashMap<ExpressionNode,Boolean>()));
+		return root;
+	}
+
+	/**
+	 * Returns the kind of the next token, or 0 at the end.
+	 */
+	private char peek() {
+		return pos < tokens.count ? tokens.kinds[pos] : 0;
+	}
+
+	/**
+	 * Parses a sequence of terms joined by + and -.
+	 */
+	private ExpressionNode parseSum() {
+		ExpressionNode node = parseProduct();
+		while (peek() == '+' || peek() == '-') {
+			node = operator(tokens.kinds[pos++], node, parseProduct());
+		}
+		return node;
+	}
+
+	/**
+	 * Parses a sequence of operands joined by * and /.
+	 */
+	private ExpressionNode parseProduct() {
+		ExpressionNode node = parseOperand();
+		while (peek() == '*' || peek() == '/') {
+			node = operator(tokens.kinds[pos++], node, parseOperand());
+		}
+		return node;
+	}
+
+	/**
+	 * Parses a constant, a variable, an array element or a parenthesized subexpression.
+	 */
+	private ExpressionNode parseOperand() {
+		ExpressionNode node;
+		switch (peek()) {
+		case 0:
+			throw new IllegalArgumentException("unexpected end of expression");
+		case 'a':
+			node = new ExpressionNode('a');
+			node.slot = tokens.slots[pos++];
+			node.symbol = symbols.arrays.get(node.slot);
+			node.name = node.symbol.name;
+			expect('[');
+			node.left = parseSum();
+			node.size += node.left.size;
+			expect(']');
+			return node;
+		case 's':
+			node = new ExpressionNode('s');
+			node.slot = tokens.slots[pos++];
+			node.name = symbols.scalars.get(node.slot).name;
+			return node;
+		case 'c':
+			node = new ExpressionNode('c');
+			node.value = tokens.values[pos];
+			node.exact = Double.parseDouble(tokens.expr.substring(tokens.starts[pos], tokens.ends[pos]));
+			pos++;
+			return node;
+		case '(':
+			pos++;
+			node = parseSum();
+			expect(')');
+			return node;
+		default:
+			throw unexpected();
+		}
+	}
+
+	/**
+	 * Consumes the given bracket.
+	 */
+	private void expect(char bracket) {
+		if (peek() != bracket) {
+			throw new IllegalArgumentException("missing '" + bracket + "' at " + position());
+		}
+		pos++;
+	}
+
+	/**
+	 * Returns the position in the string of the next token, or its length at the end.
+	 */
+	private int position() {
+		return pos < tokens.count ? tokens.starts[pos] : tokens.expr.length();
+	}
+
+	/**
+	 * Creates the exception for an unexpected next token.
+	 */
+	private IllegalArgumentException unexpected() {
+		return new IllegalArgumentException("unexpected '" +
+				tokens.expr.substring(tokens.starts[pos], tokens.ends[pos]) + "' at " + position());
+	}
+
+	/**
+	 * Creates an operator node.
+	 */
+	private static ExpressionNode operator(char op, ExpressionNode left, ExpressionNode right) {
+		ExpressionNode node = new ExpressionNode(op);
+		node.left = left;
+		node.right = right;
+		node.size += left.size + right.size;
+		return node;
+	}
+}
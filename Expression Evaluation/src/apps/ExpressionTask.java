@@ -0,0 +1,152 @@
+package apps;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates a compiled expression subtree as a fork/join task. The operands of a chain
+ * of operators down the left side of the tree, such as a+b-c*d+..., are evaluated in
+ * parallel, and the operators are then applied left to right exactly as
+ * ExpressionNode.evaluate would, so the result is the same as the sequential one.
+ * Subtrees smaller than the threshold are evaluated sequentially.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+class ExpressionTask extends RecursiveTask<Float> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Root of the subtree to evaluate
+	 */
+	ExpressionNode node;
+
+	/**
+	 * Operands of an unrolled chain, evaluated by range when node is null
+	 */
+	ExpressionNode[] operands;
+
+	/**
+	 * Receives the value of each operand in the range
+	 */
+	float[] values;
+
+	/**
+	 * Range of operands evaluated by this task, from inclusive, to exclusive
+	 */
+	int from, to;
+
+	/**
+	 * Scalar values, by slot
+	 */
+	int[] scalars;
+
+	/**
+	 * Array values, by slot
+	 */
+	int[][] arrays;
+
+	/**
+	 * Smallest subtree size that is split into parallel tasks
+	 */
+	int threshold;
+
+	/**
+	 * Initializes a task that evaluates a subtree.
+	 *
+	 * @param node Root of the subtree
+	 * @param scalars Scalar values, by slot
+	 * @param arrays Array values, by slot
+	 * @param threshold Smallest subtree size that is split into parallel tasks
+	 */
+	ExpressionTask(ExpressionNode node, int[] scalars, int[][] arrays, int threshold) {
+		this.node = node;
+		this.scalars = scalars;
+		this.arrays = arrays;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Initializes a task that evaluates a range of operands of an unrolled chain.
+	 */
+	private ExpressionTask(ExpressionNode[] operands, float[] values, int from, int to,
+			int[] scalars, int[][] arrays, int threshold) {
+		this.operands = operands;
+		this.values = values;
+		this.from = from;
+		this.to = to;
+		this.scalars = scalars;
+		this.arrays = arrays;
+		this.threshold = threshold;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.RecursiveTask#compute()
+	 */
+	protected Float compute() {
+		if (node == null) {
+			evaluateRange();
+			return null;
+		}
+		return evaluate(node);
+	}
+
+	/**
+	 * Evaluates a subtree, splitting it into parallel tasks if it is large enough.
+	 */
+	private float evaluate(ExpressionNode n) {
+		if (n.size < threshold || n.shared) {
+			return n.evaluate(scalars, arrays);
+		}
+		if (n.type == 'a') {
+			return n.element(arrays[n.slot], (int)evaluate(n.left));
+		}
+		if (!n.isOperator()) {
+			return n.evaluate(scalars, arrays);
+		}
+
+		// evaluate the operands of the chain in parallel
+		ExpressionNode[] chain = n.chain;
+		if (chain == null) {
+			chain = new ExpressionNode[] {n};
+		}
+		int k = chain.length;
+		ExpressionNode[] ops = new ExpressionNode[k+1];
+		ops[0] = chain[0].left;
+		for (int i=1; i <= k; i++) {
+			ops[i] = chain[i-1].right;
+		}
+		float[] vals = new float[k+1];
+		new ExpressionTask(ops, vals, 0, k+1, scalars, arrays, threshold).evaluateRange();
+
+		float result = vals[0];
+		for (int i=1; i <= k; i++) {
+			result = ExpressionNode.apply(chain[i-1].type, result, vals[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluates the operands in this task's range, splitting the range in half while
+	 * the operands in it are large enough.
+	 */
+	private void evaluateRange() {
+		if (to - from == 1) {
+			values[from] = evaluate(operands[from]);
+			return;
+		}
+		int total = 0;
+		for (int i=from; i < to; i++) {
+			total += operands[i].size;
+		}
+		if (total < threshold) {
+			for (int i=from; i < to; i++) {
+				values[i] = operands[i].evaluate(scalars, arrays);
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		invokeAll(new ExpressionTask(operands, values, from, mid, scalars, arrays, threshold),
+				new ExpressionTask(operands, values, mid, to, scalars, arrays, threshold));
+	}
+}
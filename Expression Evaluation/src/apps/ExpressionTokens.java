@@ -0,0 +1,140 @@
+package apps;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of an expression, found in a single pass over the string. Every token has
+ * a kind, and the position of its first character in the string. The kind is 'c' for a
+ * constant, 's' for a scalar name, 'a' for an array name (a name followed by '['),
+ * the character itself for an operator or bracket, and '?' for anything else, such as
+ * a malformed number. Whitespace separates tokens and is dropped. Tokens are kept in
+ * parallel arrays, so that a long expression is a handful of objects rather than one
+ * per token.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+class ExpressionTokens {
+
+	/**
+	 * Expression the tokens were read from
+	 */
+	String expr;
+
+	/**
+	 * Number of tokens
+	 */
+	int count;
+
+	/**
+	 * Kind of each token
+	 */
+	char[] kinds;
+
+	/**
+	 * Position in expr of the first character of each token
+	 */
+	int[] starts;
+
+	/**
+	 * Position in expr just past the last character of each token
+	 */
+	int[] ends;
+
+	/**
+	 * Value of each constant token
+	 */
+	float[] values;
+
+	/**
+	 * Slot of each scalar or array name token, set by Expression.buildSymbols
+	 */
+	int[] slots;
+
+	/**
+	 * Reads the tokens of an expression.
+	 *
+	 * @param expr Expression
+	 */
+	ExpressionTokens(String expr) {
+		this.expr = expr;
+		int capacity = Math.max(16, expr.length()/2);
+		kinds = new char[capacity];
+		starts = new int[capacity];
+		ends = new int[capacity];
+		values = new float[capacity];
+		slots = new int[capacity];
+		lex();
+	}
+
+	/**
+	 * Returns the name held by a name token.
+	 *
+	 * @param i Index of the token
+	 * @return Name
+	 */
+	String name(int i) {
+		return expr.substring(starts[i], ends[i]);
+	}
+
+	/**
+	 * Splits the expression into tokens.
+	 */
+	private void lex() {
+		int n = expr.length();
+		int i = 0;
+		while (i < n) {
+			char ch = expr.charAt(i);
+			if (Character.isWhitespace(ch)) {
+				i++;
+				continue;
+			}
+			int start = i;
+			char kind;
+			if (Character.isLetter(ch)) {
+				while (i < n && Character.isLetter(expr.charAt(i))) {
+					i++;
+				}
+				int next = i;
+				while (next < n && Character.isWhitespace(expr.charAt(next))) {
+					next++;
+				}
+				kind = next < n && expr.charAt(next) == '[' ? 'a' : 's';
+			} else if ((ch >= '0' && ch <= '9') || ch == '.') {
+				while (i < n && ((expr.charAt(i) >= '0' && expr.charAt(i) <= '9') || expr.charAt(i) == '.')) {
+					i++;
+				}
+				kind = 'c';
+			} else {
+				i++;
+				kind = "+-*/()[]".indexOf(ch) >= 0 ? ch : '?';
+			}
+			add(kind, start, i);
+		}
+	}
+
+	/**
+	 * Appends a token, growing the arrays if they are full.
+	 */
+	private void add(char kind, int start, int end) {
+		if (count == kinds.length) {
+			int capacity = count*2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			values = Arrays.copyOf(values, capacity);
+			slots = Arrays.copyOf(slots, capacity);
+		}
+		if (kind == 'c') {
+			try {
+				values[count] = Float.parseFloat(expr.substring(start, end));
+			} catch (NumberFormatException e) {
+				kind = '?';
+			}
+		}
+		kinds[count] = kind;
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+}
@@ -0,0 +1,20 @@
+package apps;
+
+/**
+ * A compiled expression generated as a JVM class, which computes the value of the
+ * expression from the symbol values by slot.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public interface Formula {
+
+	/**
+	 * Computes the value of the expression.
+	 *
+	 * @param scalars Scalar values, by slot
+	 * @param arrays Array values, by slot
+	 * @return Value of the expression
+	 */
+	float evaluate(int[] scalars, int[][] arrays);
+}
@@ -0,0 +1,428 @@
+package apps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Generates a class implementing Formula for a compiled expression, so that the JIT
+ * compiles the expression like any other method. The class file is written by hand:
+ * its evaluate method is a single straight run of bytecode with no branches, so it
+ * needs no stack map frames. Shared nodes of an optimized program are computed first
+ * into local variables. The class is defined as a hidden class where the JVM supports
+ * them, and through a class loader of its own otherwise.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+class FormulaGenerator {
+
+	/**
+	 * Internal name of the generated class, in this package so it can be a hidden class
+	 */
+	static final String CLASS_NAME = "apps/GeneratedFormula";
+
+	/**
+	 * Largest method the JVM accepts, in bytes of code
+	 */
+	static final int MAX_CODE_LENGTH = 65535;
+
+	/**
+	 * Constant pool being built, without the leading count
+	 */
+	ByteArrayOutputStream pool;
+
+	/**
+	 * Writer on pool
+	 */
+	DataOutputStream poolOut;
+
+	/**
+	 * Number of constant pool slots used so far, plus 1
+	 */
+	int poolCount;
+
+	/**
+	 * Index of each constant pool entry already written, by a key describing it
+	 */
+	HashMap<String,Integer> poolIndex;
+
+	/**
+	 * Code of the evaluate method being built
+	 */
+	ByteArrayOutputStream code;
+
+	/**
+	 * Current depth of the operand stack while generating code
+	 */
+	int depth;
+
+	/**
+	 * Largest depth of the operand stack in the generated code
+	 */
+	int maxDepth;
+
+	/**
+	 * Local variable holding each shared node
+	 */
+	IdentityHashMap<ExpressionNode,Integer> locals;
+
+	/**
+	 * Initializes a generator with an empty constant pool.
+	 */
+	FormulaGenerator() {
+		pool = new ByteArrayOutputStream();
+		poolOut = new DataOutputStream(pool);
+		poolCount = 1;
+		poolIndex = new HashMap<String,Integer>();
+		code = new ByteArrayOutputStream();
+		locals = new IdentityHashMap<ExpressionNode,Integer>();
+	}
+
+	/**
+	 * Generates and loads a formula for a program.
+	 *
+	 * @param root Root of the program
+	 * @param shared Shared nodes of the program, children before parents
+	 * @return The formula, or null if it could not be generated or loaded
+	 */
+	static Formula generate(ExpressionNode root, ExpressionNode[] shared) {
+		byte[] bytes;
+		try {
+			bytes = new FormulaGenerator().classFile(root, shared);
+		} catch (IOException e) {
+			return null;
+		}
+		if (bytes == null) {
+			return null;
+		}
+		try {
+			return (Formula)define(bytes).getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Defines a generated class, as a hidden class if MethodHandles.Lookup supports them,
+	 * or else in a new class loader.
+	 *
+	 * @param bytes Class file
+	 * @return The class
+	 */
+	static Class<?> define(byte[] bytes) throws Exception {
+		try {
+			Class<?> options = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			Object noOptions = Array.newInstance(options, 0);
+			Method defineHidden = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+					byte[].class, boolean.class, noOptions.getClass());
+			Object lookup = defineHidden.invoke(MethodHandles.lookup(), bytes, true, noOptions);
+			return ((MethodHandles.Lookup)lookup).lookupClass();
+		} catch (ClassNotFoundException e) {
+			// no hidden classes before Java 15
+		} catch (NoSuchMethodException e) {
+			// no hidden classes before Java 15
+		}
+		return new FormulaLoader(FormulaGenerator.class.getClassLoader()).define(bytes);
+	}
+
+	/**
+	 * Class loader that defines one generated class.
+	 */
+	static class FormulaLoader extends ClassLoader {
+		FormulaLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(byte[] bytes) {
+			return defineClass(CLASS_NAME.replace('/', '.'), bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Writes the class file for a program.
+	 *
+	 * @param root Root of the program
+	 * @param shared Shared nodes of the program, children before parents
+	 * @return Class file, or null if the program is too large for one method
+	 */
+	byte[] classFile(ExpressionNode root, ExpressionNode[] shared) throws IOException {
+		int thisClass = classRef(CLASS_NAME);
+		int superClass = classRef("java/lang/Object");
+		int formula = classRef("apps/Formula");
+		int objectInit = methodRef(superClass, "<init>", "()V");
+		int codeName = utf8("Code");
+		int initName = utf8("<init>");
+		int initType = utf8("()V");
+		int evaluateName = utf8("evaluate");
+		int evaluateType = utf8("([I[[I)F");
+
+		// locals 0, 1 and 2 are this, scalars and arrays
+		int maxLocals = 3;
+		for (ExpressionNode n: shared) {
+			emitNode(n, true);
+			emitLocal(0x38, maxLocals);
+			pop(1);
+			locals.put(n, maxLocals++);
+		}
+		emitNode(root, false);
+		code.write(0xae);	// freturn
+		if (code.size() > MAX_CODE_LENGTH || maxLocals > 0xffff || poolCount > 0xffff) {
+			return null;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xcafebabe);
+		out.writeShort(0);
+		out.writeShort(52);
+		out.writeShort(poolCount);
+		pool.writeTo(out);
+		out.writeShort(0x0031);	// public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(formula);
+		out.writeShort(0);	// fields
+		out.writeShort(2);	// methods
+
+		// public <init>() { super(); }
+		out.writeShort(0x0001);
+		out.writeShort(initName);
+		out.writeShort(initType);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + 5);
+		out.writeShort(1);
+		out.writeShort(1);
+		out.writeInt(5);
+		out.writeByte(0x2a);	// aload_0
+		out.writeByte(0xb7);	// invokespecial
+		out.writeShort(objectInit);
+		out.writeByte(0xb1);	// return
+		out.writeShort(0);
+		out.writeShort(0);
+
+		// public float evaluate(int[] scalars, int[][] arrays)
+		out.writeShort(0x0001);
+		out.writeShort(evaluateName);
+		out.writeShort(evaluateType);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + code.size());
+		out.writeShort(maxDepth);
+		out.writeShort(maxLocals);
+		out.writeInt(code.size());
+		code.writeTo(out);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		out.writeShort(0);	// attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Emits code that pushes the float value of a node.
+	 *
+	 * @param n Node
+	 * @param compute True to compute a shared node rather than load its local
+	 */
+	private void emitNode(ExpressionNode n, boolean compute) throws IOException {
+		if (n.shared && !compute) {
+			emitLocal(0x17, locals.get(n));	// fload
+			push(1);
+			return;
+		}
+		switch (n.type) {
+		case 'c':
+			emitFloat(n.value);
+			return;
+		case 's':
+			code.write(0x2b);	// aload_1
+			push(1);
+			emitInt(n.slot);
+			code.write(0x2e);	// iaload
+			pop(1);
+			code.write(0x86);	// i2f
+			return;
+		case 'a':
+			code.write(0x2c);	// aload_2
+			push(1);
+			emitInt(n.slot);
+			code.write(0x32);	// aaload
+			pop(1);
+			emitNode(n.left, false);
+			code.write(0x8b);	// f2i
+			code.write(0x2e);	// iaload
+			pop(1);
+			code.write(0x86);	// i2f
+			return;
+		}
+		if (n.chain != null) {
+			emitNode(n.chain[0].left, false);
+			for (ExpressionNode c: n.chain) {
+				emitNode(c.right, false);
+				emitOperator(c.type);
+			}
+			return;
+		}
+		emitNode(n.left, false);
+		emitNode(n.right, false);
+		emitOperator(n.type);
+	}
+
+	/**
+	 * Emits the instruction for an operator, which pops two floats and pushes one.
+	 */
+	private void emitOperator(char op) {
+		switch (op) {
+		case '+': code.write(0x62); break;	// fadd
+		case '-': code.write(0x66); break;	// fsub
+		case '*': code.write(0x6a); break;	// fmul
+		case '/': code.write(0x6e); break;	// fdiv
+		default: throw new IllegalStateException("unknown operator " + op);
+		}
+		pop(1);
+	}
+
+	/**
+	 * Emits code that pushes an int constant.
+	 */
+	private void emitInt(int value) throws IOException {
+		if (value >= -1 && value <= 5) {
+			code.write(0x03 + value);	// iconst_<n>
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			code.write(0x10);	// bipush
+			code.write(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			code.write(0x11);	// sipush
+			code.write(value >> 8);
+			code.write(value);
+		} else {
+			emitConstant(intConstant(value));
+		}
+		push(1);
+	}
+
+	/**
+	 * Emits code that pushes a float constant.
+	 */
+	private void emitFloat(float value) throws IOException {
+		int bits = Float.floatToRawIntBits(value);
+		if (bits == Float.floatToRawIntBits(0f)) {
+			code.write(0x0b);	// fconst_0
+		} else if (bits == Float.floatToRawIntBits(1f)) {
+			code.write(0x0c);	// fconst_1
+		} else if (bits == Float.floatToRawIntBits(2f)) {
+			code.write(0x0d);	// fconst_2
+		} else {
+			emitConstant(floatConstant(value));
+		}
+		push(1);
+	}
+
+	/**
+	 * Emits ldc or ldc_w for a constant pool entry.
+	 */
+	private void emitConstant(int index) {
+		if (index < 256) {
+			code.write(0x12);	// ldc
+			code.write(index);
+		} else {
+			code.write(0x13);	// ldc_w
+			code.write(index >> 8);
+			code.write(index);
+		}
+	}
+
+	/**
+	 * Emits a load or store of a local variable, widened if needed.
+	 */
+	private void emitLocal(int opcode, int index) {
+		if (index < 256) {
+			code.write(opcode);
+			code.write(index);
+		} else {
+			code.write(0xc4);	// wide
+			code.write(opcode);
+			code.write(index >> 8);
+			code.write(index);
+		}
+	}
+
+	private void push(int n) {
+		depth += n;
+		maxDepth = Math.max(maxDepth, depth);
+	}
+
+	private void pop(int n) {
+		depth -= n;
+	}
+
+	private int utf8(String s) throws IOException {
+		Integer index = poolIndex.get("U" + s);
+		if (index == null) {
+			poolOut.writeByte(1);
+			poolOut.writeUTF(s);
+			index = poolCount++;
+			poolIndex.put("U" + s, index);
+		}
+		return index;
+	}
+
+	private int classRef(String name) throws IOException {
+		int nameIndex = utf8(name);
+		Integer index = poolIndex.get("C" + name);
+		if (index == null) {
+			poolOut.writeByte(7);
+			poolOut.writeShort(nameIndex);
+			index = poolCount++;
+			poolIndex.put("C" + name, index);
+		}
+		return index;
+	}
+
+	private int methodRef(int classIndex, String name, String type) throws IOException {
+		int nameIndex = utf8(name);
+		int typeIndex = utf8(type);
+		poolOut.writeByte(12);	// name and type
+		poolOut.writeShort(nameIndex);
+		poolOut.writeShort(typeIndex);
+		int nameAndType = poolCount++;
+		poolOut.writeByte(10);	// method ref
+		poolOut.writeShort(classIndex);
+		poolOut.writeShort(nameAndType);
+		return poolCount++;
+	}
+
+	private int intConstant(int value) throws IOException {
+		Integer index = poolIndex.get("I" + value);
+		if (index == null) {
+			poolOut.writeByte(3);
+			poolOut.writeInt(value);
+			index = poolCount++;
+			poolIndex.put("I" + value, index);
+		}
+		return index;
+	}
+
+	private int floatConstant(float value) throws IOException {
+		int bits = Float.floatToRawIntBits(value);
+		Integer index = poolIndex.get("F" + bits);
+		if (index == null) {
+			poolOut.writeByte(4);
+			poolOut.writeInt(bits);
+			index = poolCount++;
+			poolIndex.put("F" + bits, index);
+		}
+		return index;
+	}
+}
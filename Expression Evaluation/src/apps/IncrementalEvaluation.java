@@ -0,0 +1,176 @@
+package apps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import structures.IntArray;
+import structures.Stack;
+
+/**
+ * Tracks which nodes of a compiled expression depend on which symbols, so that after
+ * some symbol values change only the nodes on the paths from those symbols up to the
+ * root are recomputed. All other nodes keep the values cached in the last evaluation.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+class IncrementalEvaluation {
+
+	/**
+	 * Root of the program being evaluated
+	 */
+	ExpressionNode root;
+
+	/**
+	 * Nodes that read each scalar, by slot
+	 */
+	ArrayList<ArrayList<ExpressionNode>> scalarNodes;
+
+	/**
+	 * Nodes that read each array, by slot
+	 */
+	ArrayList<ArrayList<ExpressionNode>> arrayNodes;
+
+	/**
+	 * Scalar values seen by the last evaluation, by slot
+	 */
+	int[] seenScalars;
+
+	/**
+	 * Array values seen by the last evaluation, by slot
+	 */
+	int[][] seenArrays;
+
+	/**
+	 * Array stores seen by the last evaluation, by slot
+	 */
+	IntArray[] seenStores;
+
+	/**
+	 * Work list for marking nodes dirty
+	 */
+	Stack<ExpressionNode> work;
+
+	/**
+	 * Sets up dependency tracking for a program. Every node starts out dirty.
+	 *
+	 * @param root Root of the program
+	 * @param scalarCount Number of scalar slots
+	 * @param arrayCount Number of array slots
+	 */
+	IncrementalEvaluation(ExpressionNode root, int scalarCount, int arrayCount) {
+		this.root = root;
+		scalarNodes = new ArrayList<ArrayList<ExpressionNode>>();
+		for (int i=0; i < scalarCount; i++) {
+			scalarNodes.add(new ArrayList<ExpressionNode>());
+		}
+		arrayNodes = new ArrayList<ArrayList<ExpressionNode>>();
+		for (int i=0; i < arrayCount; i++) {
+			arrayNodes.add(new ArrayList<ExpressionNode>());
+		}
+		work = new Stack<ExpressionNode>();
+
+		// link every node to its parents, without recursion so long chains are safe
+		Set<ExpressionNode> visited = Collections.newSetFromMap(new IdentityHashMap<ExpressionNode,Boolean>());
+		visited.add(root);
+		work.push(root);
+		root.parents = new ArrayList<ExpressionNode>();
+		while (!work.isEmpty()) {
+			ExpressionNode n = work.pop();
+			n.dirty = true;
+			if (n.type == 's') {
+				scalarNodes.get(n.slot).add(n);
+			} else if (n.type == 'a') {
+				arrayNodes.get(n.slot).add(n);
+			}
+			ExpressionNode[] children = {n.left, n.right};
+			for (ExpressionNode child: children) {
+				if (child == null) {
+					continue;
+				}
+				if (visited.add(child)) {
+					child.parents = new ArrayList<ExpressionNode>();
+					work.push(child);
+				}
+				child.parents.add(n);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the program, first marking dirty the nodes that depend on every scalar
+	 * whose value differs from the last evaluation and on every array whose values or
+	 * store have been replaced since then.
+	 *
+	 * @param scalars Scalar values, by slot
+	 * @param arrays Array values, by slot
+	 * @param stores Array stores, by slot
+	 * @return Value of the program
+	 */
+	float evaluate(int[] scalars, int[][] arrays, IntArray[] stores) {
+		if (seenScalars == null) {
+			seenScalars = scalars.clone();
+			seenArrays = arrays.clone();
+			seenStores = stores.clone();
+		} else {
+			for (int i=0; i < scalars.length; i++) {
+				if (scalars[i] != seenScalars[i]) {
+					seenScalars[i] = scalars[i];
+					markDirty(scalarNodes.get(i));
+				}
+			}
+			for (int i=0; i < arrays.length; i++) {
+				if (arrays[i] != seenArrays[i] || stores[i] != seenStores[i]) {
+					seenArrays[i] = arrays[i];
+					seenStores[i] = stores[i];
+					markDirty(arrayNodes.get(i));
+				}
+			}
+		}
+		return root.evaluateCached(scalars, arrays);
+	}
+
+	/**
+	 * Marks dirty the nodes that read a scalar, for changes that cannot be seen by
+	 * comparing values.
+	 *
+	 * @param slot Scalar slot
+	 */
+	void scalarChanged(int slot) {
+		markDirty(scalarNodes.get(slot));
+	}
+
+	/**
+	 * Marks dirty the nodes that read an array, for changes made to elements of the
+	 * array in place.
+	 *
+	 * @param slot Array slot
+	 */
+	void arrayChanged(int slot) {
+		markDirty(arrayNodes.get(slot));
+	}
+
+	/**
+	 * Marks the given nodes and all their ancestors dirty. The ancestors of a dirty node
+	 * are always dirty, so marking stops at nodes that are dirty already.
+	 *
+	 * @param nodes Nodes to mark
+	 */
+	private void markDirty(ArrayList<ExpressionNode> nodes) {
+		for (ExpressionNode n: nodes) {
+			work.push(n);
+		}
+		while (!work.isEmpty()) {
+			ExpressionNode n = work.pop();
+			if (n.dirty) {
+				continue;
+			}
+			n.dirty = true;
+			for (ExpressionNode p: n.parents) {
+				work.push(p);
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package apps;
+
+import structures.FloatStack;
+
+/**
+ * Evaluates a compiled expression lazily, computing an operand only when its value can
+ * still change the result. The one case that matters is multiplication by zero: the
+ * cheaper operand of a multiplication, by node count, is computed first, and if it is
+ * zero the other operand is skipped along with every array element and subscript in
+ * it. Array subscripts are computed only when their element is read, so a skipped
+ * operand reads nothing. Counters tell how much was skipped.
+ *
+ * The sign of a product of zero depends on the skipped operand, as -1*0 is -0, and a
+ * division by -0 gives -Infinity where a division by 0 gives Infinity. So a product
+ * whose value reaches the divisor of a division is never skipped.
+ *
+ * Results are the same as evaluate gives, except that a product with a zero operand is
+ * zero even where evaluate would give NaN, from a zero times an infinity, or would throw
+ * for a subscript out of bounds in the skipped operand, and that a result of zero may
+ * be 0 where evaluate gives -0, which compares equal to it.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class LazyEvaluation {
+
+	/**
+	 * Number of evaluations
+	 */
+	public long evaluations;
+
+	/**
+	 * Number of operands skipped because the other operand of their multiplication was
+	 * zero
+	 */
+	public long subtreesSkipped;
+
+	/**
+	 * Total nodes in the skipped operands
+	 */
+	public long nodesSkipped;
+
+	/**
+	 * Root of the program being evaluated
+	 */
+	ExpressionNode root;
+
+	/**
+	 * Scalar values of the current evaluation, by slot
+	 */
+	int[] scalars;
+
+	/**
+	 * Array values of the current evaluation, by slot
+	 */
+	int[][] arrays;
+
+	/**
+	 * Values of the right operands computed on the way down each chain, for use on the
+	 * way back up
+	 */
+	FloatStack operands;
+
+	/**
+	 * Sets up lazy evaluation of a program.
+	 *
+	 * @param root Root of the program, which must have no shared nodes
+	 */
+	LazyEvaluation(ExpressionNode root) {
+		this.root = root;
+		operands = new FloatStack();
+		markSignedZeros(root, false);
+	}
+
+	/**
+	 * Sets signedZero on every node of a subtree: a divisor and everything whose value
+	 * flows into it get it, and subscripts, which are truncated to int, do not.
+	 *
+	 * @param n Root of the subtree
+	 * @param signed Whether the sign of a zero value of n can change the result
+	 */
+	private static void markSignedZeros(ExpressionNode n, boolean signed) {
+		n.signedZero = signed;
+		if (n.type == 'a') {
+			markSignedZeros(n.left, false);
+		} else if (n.chain != null) {
+			// every operator of the chain passes its value up as its left operand
+			for (ExpressionNode c: n.chain) {
+				c.signedZero = signed;
+				markSignedZeros(c.right, signed || c.type == '/');
+			}
+			markSignedZeros(n.chain[0].left, signed);
+		} else if (n.isOperator()) {
+			markSignedZeros(n.left, signed);
+			markSignedZeros(n.right, signed || n.type == '/');
+		}
+	}
+
+	/**
+	 * Evaluates the program.
+	 *
+	 * @param scalars Scalar values, by slot
+	 * @param arrays Array values, by slot
+	 * @return Value of the program
+	 */
+	float evaluate(int[] scalars, int[][] arrays) {
+		this.scalars = scalars;
+		this.arrays = arrays;
+		operands.clear();
+		evaluations++;
+		return evaluate(root);
+	}
+
+	/**
+	 * Evaluates the subtree rooted at a node lazily.
+	 */
+	private float evaluate(ExpressionNode n) {
+		switch (n.type) {
+		case 'c': return n.value;
+		case 's': return scalars[n.slot];
+		case 'a': return n.element(arrays[n.slot], (int)evaluate(n.left));
+		}
+		if (n.chain == null) {
+			if (n.type == '*' && rightFirst(n)) {
+				float right = evaluate(n.right);
+				return right == 0 && !n.signedZero ? skip(n.left) : evaluate(n.left) * right;
+			}
+			float left = evaluate(n.left);
+			if (n.type == '*' && left == 0 && !n.signedZero) {
+				return skip(n.right);
+			}
+			return ExpressionNode.apply(n.type, left, evaluate(n.right));
+		}
+		return evaluateChain(n.chain);
+	}
+
+	/**
+	 * Evaluates a chain of operators. On the way down, from the top of the chain, the
+	 * right operand of every multiplication that is cheaper than everything below it is
+	 * computed and kept; once one is zero, everything below it is skipped. On the way
+	 * back up, the remaining right operands are computed in order, except those of
+	 * multiplications of a zero. Nothing is skipped in a chain whose value reaches a
+	 * divisor.
+	 */
+	private float evaluateChain(ExpressionNode[] chain) {
+		boolean skippable = !chain[chain.length-1].signedZero;
+		int from = 0;
+		float result = 0;
+		boolean zero = false;
+		for (int i=chain.length-1; i >= 0; i--) {
+			if (chain[i].type == '*' && rightFirst(chain[i])) {
+				float right = evaluate(chain[i].right);
+				if (right == 0 && skippable) {
+					result = skip(chain[i].left);
+					from = i+1;
+					zero = true;
+					break;
+				}
+				operands.push(right);
+			}
+		}
+		if (!zero) {
+			result = evaluate(chain[0].left);
+		}
+		for (int i=from; i < chain.length; i++) {
+			ExpressionNode n = chain[i];
+			if (n.type != '*') {
+				result = ExpressionNode.apply(n.type, result, evaluate(n.right));
+			} else if (rightFirst(n)) {
+				result = result * operands.pop();
+			} else if (result == 0 && skippable) {
+				result = skip(n.right);
+			} else {
+				result = result * evaluate(n.right);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Tells whether the right operand of a multiplication is to be computed first,
+	 * because it has no more nodes than the left.
+	 */
+	private static boolean rightFirst(ExpressionNode n) {
+		return n.right.size <= n.left.size;
+	}
+
+	/**
+	 * Counts an operand as skipped.
+	 *
+	 * @return Zero, the value of the multiplication it was skipped from
+	 */
+	private float skip(ExpressionNode n) {
+		subtreesSkipped++;
+		nodesSkipped += n.size;
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "evaluations=" + evaluations + " subtreesSkipped=" + subtreesSkipped +
+				" nodesSkipped=" + nodesSkipped;
+	}
+}
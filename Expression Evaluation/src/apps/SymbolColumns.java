@@ -0,0 +1,130 @@
+package apps;
+
+import java.util.HashMap;
+
+/**
+ * Holds columnar symbol values for evaluating one expression over many rows. Every
+ * scalar column has one value per row, and every array column has one array per row.
+ * Symbols without a column keep the value loaded into the expression for every row.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class SymbolColumns {
+
+	/**
+	 * Number of rows
+	 */
+	int rows;
+
+	/**
+	 * Scalar columns by symbol name, each either an int[] or a float[]
+	 */
+	HashMap<String,Object> scalars;
+
+	/**
+	 * Array columns by symbol name
+	 */
+	HashMap<String,int[][]> arrays;
+
+	/**
+	 * Scalar columns by slot, set by bind; null for scalars without a column
+	 */
+	Object[] scalarColumns;
+
+	/**
+	 * Array columns by slot, set by bind; null for arrays without a column
+	 */
+	int[][][] arrayColumns;
+
+	/**
+	 * Loaded scalar values by slot, set by bind
+	 */
+	int[] scalarValues;
+
+	/**
+	 * Loaded array values by slot, set by bind
+	 */
+	int[][] arrayValues;
+
+	/**
+	 * Initializes an empty set of columns with the given number of rows.
+	 *
+	 * @param rows Number of rows
+	 */
+	public SymbolColumns(int rows) {
+		this.rows = rows;
+		scalars = new HashMap<String,Object>();
+		arrays = new HashMap<String,int[][]>();
+	}
+
+	/**
+	 * Adds an integer column for a scalar symbol.
+	 *
+	 * @param name Scalar name
+	 * @param values One value per row
+	 * @throws IllegalArgumentException If the column does not have one value per row
+	 */
+	public void put(String name, int[] values) {
+		checkLength(values.length);
+		scalars.put(name, values);
+	}
+
+	/**
+	 * Adds a float column for a scalar symbol.
+	 *
+	 * @param name Scalar name
+	 * @param values One value per row
+	 * @throws IllegalArgumentException If the column does not have one value per row
+	 */
+	public void put(String name, float[] values) {
+		checkLength(values.length);
+		scalars.put(name, values);
+	}
+
+	/**
+	 * Adds a column for an array symbol.
+	 *
+	 * @param name Array name
+	 * @param values One array of values per row
+	 * @throws IllegalArgumentException If the column does not have one array per row
+	 */
+	public void putArray(String name, int[][] values) {
+		checkLength(values.length);
+		arrays.put(name, values);
+	}
+
+	/**
+	 * Returns the number of rows.
+	 *
+	 * @return Number of rows
+	 */
+	public int rows() {
+		return rows;
+	}
+
+	/**
+	 * Resolves the columns to the slots of a symbol table, so that evaluation looks
+	 * up no names.
+	 *
+	 * @param symbols Symbol table of the expression being evaluated
+	 */
+	void bind(SymbolTable symbols) {
+		scalarColumns = new Object[symbols.scalars.size()];
+		for (int i=0; i < scalarColumns.length; i++) {
+			scalarColumns[i] = scalars.get(symbols.scalars.get(i).name);
+		}
+		arrayColumns = new int[symbols.arrays.size()][][];
+		for (int i=0; i < arrayColumns.length; i++) {
+			arrayColumns[i] = arrays.get(symbols.arrays.get(i).name);
+		}
+		scalarValues = symbols.scalarValues;
+		arrayValues = symbols.arrayValues;
+	}
+
+	private void checkLength(int length) {
+		if (length != rows) {
+			throw new IllegalArgumentException("column has " + length + " rows, expected " + rows);
+		}
+	}
+}
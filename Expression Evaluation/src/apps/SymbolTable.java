@@ -0,0 +1,215 @@
+package apps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import structures.IntArray;
+
+/**
+ * Indexes the symbols of an expression. Every name is given a dense slot number when
+ * its symbol is added, which is its position in the scalars or arrays list, and the
+ * values of all symbols are mirrored in arrays indexed by slot so that a compiled
+ * expression reads them without looking up any names.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+public class SymbolTable {
+
+	/**
+	 * Scalar symbols, in slot order
+	 */
+	ArrayList<ScalarSymbol> scalars;
+
+	/**
+	 * Array symbols, in slot order
+	 */
+	ArrayList<ArraySymbol> arrays;
+
+	/**
+	 * Slot of each scalar name
+	 */
+	HashMap<String,Integer> scalarSlots;
+
+	/**
+	 * Slot of each array name
+	 */
+	HashMap<String,Integer> arraySlots;
+
+	/**
+	 * Value of each scalar, by slot
+	 */
+	int[] scalarValues;
+
+	/**
+	 * Values of each array, by slot; null for an array held in a store
+	 */
+	int[][] arrayValues;
+
+	/**
+	 * Store of each array, by slot; null for an array held in arrayValues
+	 */
+	IntArray[] arrayStores;
+
+	/**
+	 * Whether every array is held in arrayValues, so that code reading only those can
+	 * be used
+	 */
+	boolean arraysOnHeap;
+
+	/**
+	 * Metrics that count name lookups, or null when metrics are off
+	 */
+	ExpressionMetrics metrics;
+
+	/**
+	 * Initializes an empty table that adds its symbols to the given lists.
+	 *
+	 * @param scalars List that receives scalar symbols
+	 * @param arrays List that receives array symbols
+	 */
+	SymbolTable(ArrayList<ScalarSymbol> scalars, ArrayList<ArraySymbol> arrays) {
+		this.scalars = scalars;
+		this.arrays = arrays;
+		scalarSlots = new HashMap<String,Integer>();
+		arraySlots = new HashMap<String,Integer>();
+		scalarValues = new int[0];
+		arrayValues = new int[0][];
+		arrayStores = new IntArray[0];
+		arraysOnHeap = true;
+	}
+
+	/**
+	 * Adds a scalar symbol with the given name, unless there already is one.
+	 *
+	 * @param name Scalar name
+	 * @return Slot of the scalar
+	 */
+	int addScalar(String name) {
+		if (metrics != null) {
+			metrics.symbolLookups++;
+		}
+		Integer slot = scalarSlots.get(name);
+		if (slot != null) {
+			return slot;
+		}
+		scalarSlots.put(name, scalars.size());
+		scalars.add(new ScalarSymbol(name));
+		return scalars.size()-1;
+	}
+
+	/**
+	 * Adds an array symbol with the given name, unless there already is one.
+	 *
+	 * @param name Array name
+	 * @return Slot of the array
+	 */
+	int addArray(String name) {
+		if (metrics != null) {
+			metrics.symbolLookups++;
+		}
+		Integer slot = arraySlots.get(name);
+		if (slot != null) {
+			return slot;
+		}
+		arraySlots.put(name, arrays.size());
+		arrays.add(new ArraySymbol(name));
+		return arrays.size()-1;
+	}
+
+	/**
+	 * Returns the slot of the scalar with the given name.
+	 *
+	 * @param name Scalar name
+	 * @return Slot, or -1 if there is no such scalar
+	 */
+	int scalarSlot(String name) {
+		if (metrics != null) {
+			metrics.symbolLookups++;
+		}
+		Integer slot = scalarSlots.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * Returns the slot of the array with the given name.
+	 *
+	 * @param name Array name
+	 * @return Slot, or -1 if there is no such array
+	 */
+	int arraySlot(String name) {
+		if (metrics != null) {
+			metrics.symbolLookups++;
+		}
+		Integer slot = arraySlots.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * Copies the current values of all symbols into the slot arrays. This is a single
+	 * pass over the symbols, so values assigned directly to ScalarSymbol.value,
+	 * ArraySymbol.values or ArraySymbol.store are seen by the next evaluation.
+	 */
+	void refresh() {
+		if (scalarValues.length != scalars.size()) {
+			scalarValues = new int[scalars.size()];
+		}
+		if (arrayValues.length != arrays.size()) {
+			arrayValues = new int[arrays.size()][];
+			arrayStores = new IntArray[arrays.size()];
+		}
+		for (int i=0; i < scalarValues.length; i++) {
+			scalarValues[i] = scalars.get(i).value;
+		}
+		arraysOnHeap = true;
+		for (int i=0; i < arrayValues.length; i++) {
+			arrayValues[i] = arrays.get(i).values;
+			arrayStores[i] = arrays.get(i).store;
+			if (arrayStores[i] != null) {
+				arraysOnHeap = false;
+			}
+		}
+	}
+
+	/**
+	 * Gives every symbol the value of the symbol with the same name in another table,
+	 * such as one filled by SymbolValuesReader.loadAll. Arrays share the other table's
+	 * values and stores rather than copying them, so neither table may change them
+	 * afterwards. An array that the other table has only as a scalar gets that many
+	 * zeros, as loading a file line without (index,val) pairs would give it. Symbols
+	 * not in the other table are left as they are.
+	 *
+	 * @param from Table to take values from
+	 */
+	void copyValues(SymbolTable from) {
+		for (ScalarSymbol ss: scalars) {
+			int slot = from.scalarSlot(ss.name);
+			if (slot != -1) {
+				ss.value = from.scalars.get(slot).value;
+			}
+		}
+		for (ArraySymbol as: arrays) {
+			int slot = from.arraySlot(as.name);
+			if (slot != -1) {
+				as.values = from.arrays.get(slot).values;
+				as.store = from.arrays.get(slot).store;
+			} else if ((slot = from.scalarSlot(as.name)) != -1) {
+				as.allocate(from.scalars.get(slot).value);
+			}
+		}
+	}
+
+	/**
+	 * Sets every scalar back to zero and every array back to null, as they are when
+	 * the symbols are first built.
+	 */
+	void clearValues() {
+		for (ScalarSymbol ss: scalars) {
+			ss.value = 0;
+		}
+		for (ArraySymbol as: arrays) {
+			as.values = null;
+			as.store = null;
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package apps;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a symbol values file in the format read by Expression.loadSymbolValues(Scanner),
+ * straight from a file channel into a large buffer, and parses it byte by byte. No
+ * strings are created except for one symbol name per line, so arrays with millions of
+ * (index,val) pairs load at close to disk speed.
+ *
+ * @author ru-nb-cs112
+ *
+ */
+class SymbolValuesReader {
+
+	/**
+	 * Size of the read buffer
+	 */
+	static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Channel being read
+	 */
+	FileChannel channel;
+
+	/**
+	 * Read buffer
+	 */
+	ByteBuffer buffer;
+
+	/**
+	 * Backing array of the read buffer
+	 */
+	byte[] bytes;
+
+	/**
+	 * Index of the next unread byte in bytes
+	 */
+	int pos;
+
+	/**
+	 * Number of valid bytes in bytes
+	 */
+	int limit;
+
+	/**
+	 * Current line number, for error messages
+	 */
+	int line;
+
+	/**
+	 * Whether names that are not in the table are added to it rather than skipped
+	 */
+	boolean addMissing;
+
+	/**
+	 * Buffer for reading past the read buffer without consuming, allocated when first
+	 * needed
+	 */
+	ByteBuffer ahead;
+
+	/**
+	 * Initializes a reader on the given channel, with a buffer no larger than the
+	 * channel so that small files are cheap to load.
+	 *
+	 * @param channel Channel to read from
+	 * @throws IOException If the size of the channel cannot be read
+	 */
+	SymbolValuesReader(FileChannel channel) throws IOException {
+		this.channel = channel;
+		buffer = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, channel.size() + 1));
+		bytes = buffer.array();
+		pos = 0;
+		limit = 0;
+		line = 1;
+	}
+
+	/**
+	 * Loads the values in a file into the symbols of a table. Lines for names that are
+	 * not in the table are skipped.
+	 *
+	 * @param file Name of the symbol values file
+	 * @param symbols Symbols that receive the values
+	 * @throws IOException If the file cannot be read or is malformed
+	 */
+	static void load(String file, SymbolTable symbols) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			new SymbolValuesReader(in.getChannel()).load(symbols);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads every symbol in a file into a table, adding each name that is not already
+	 * there: as an array if its line has (index,val) pairs, and as a scalar otherwise.
+	 * The table can then hand its values to any number of expressions with
+	 * SymbolTable.copyValues, so that the file is read only once.
+	 *
+	 * @param file Name of the symbol values file
+	 * @param symbols Table that receives the symbols
+	 * @throws IOException If the file cannot be read or is malformed
+	 */
+	static void loadAll(String file, SymbolTable symbols) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			SymbolValuesReader reader = new SymbolValuesReader(in.getChannel());
+			reader.addMissing = true;
+			reader.load(symbols);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads all the lines of the channel into the symbols of a table.
+	 *
+	 * @param symbols Symbols that receive the values
+	 * @throws IOException If the channel cannot be read or is malformed
+	 */
+	void load(SymbolTable symbols) throws IOException {
+		StringBuilder name = new StringBuilder();
+		while (true) {
+			int b = skipBlanks();
+			if (b == -1) {
+				return;
+			}
+			if (b == '\n') {
+				pos++;
+				line++;
+				continue;
+			}
+			name.setLength(0);
+			while (b != -1 && !isBlank(b) && b != '\n') {
+				name.append((char)b);
+				pos++;
+				b = peek();
+			}
+			String sym = name.toString();
+			int ssi = symbols.scalarSlot(sym);
+			int asi = symbols.arraySlot(sym);
+			if (ssi == -1 && asi == -1 && !addMissing) {
+				skipLine();
+				continue;
+			}
+			skipBlanks();
+			int num = readInt();
+			b = skipBlanks();
+			if (ssi == -1 && asi == -1) {
+				if (b == '(') {
+					asi = symbols.addArray(sym);
+				} else {
+					ssi = symbols.addScalar(sym);
+				}
+			}
+			if (b == '(' && asi != -1) {
+				ArraySymbol asymbol = symbols.arrays.get(asi);
+				// short arrays are always plain int arrays, so only long ones need the count
+				asymbol.allocate(num, num < ArraySymbol.SPARSE_MIN_LENGTH ? 0 : countPairs());
+				while (b == '(') {
+					pos++;
+					skipBlanks();
+					int index = readInt();
+					expect(',');
+					skipBlanks();
+					int val = readInt();
+					expect(')');
+					if (index < 0 || index >= num) {
+						throw error("index " + index + " out of range for " + sym);
+					}
+					asymbol.set(index, val);
+					b = skipBlanks();
+				}
+			} else if (ssi != -1) {
+				symbols.scalars.get(ssi).value = num;
+			} else {
+				symbols.arrays.get(asi).allocate(num);
+			}
+			if (b != '\n' && b != -1) {
+				throw error("unexpected '" + (char)b + "'");
+			}
+		}
+	}
+
+	/**
+	 * Returns the next byte without consuming it, refilling the buffer if needed.
+	 *
+	 * @return Next byte, or -1 at the end of the channel
+	 */
+	private int peek() throws IOException {
+		if (pos == limit) {
+			buffer.clear();
+			int n;
+			do {
+				n = channel.read(buffer);
+			} while (n == 0);
+			if (n < 0) {
+				return -1;
+			}
+			pos = 0;
+			limit = n;
+		}
+		return bytes[pos];
+	}
+
+	/**
+	 * Counts the (index,val) pairs on the rest of the current line without consuming
+	 * them, by counting opening brackets, reading ahead of the buffer if the line goes
+	 * on past it.
+	 *
+	 * @return Number of pairs, or more if the line is malformed
+	 */
+	private int countPairs() throws IOException {
+		int count = 0;
+		for (int i=pos; i < limit; i++) {
+			if (bytes[i] == '\n') {
+				return count;
+			}
+			if (bytes[i] == '(') {
+				count++;
+			}
+		}
+		if (ahead == null) {
+			ahead = ByteBuffer.allocate(bytes.length);
+		}
+		long position = channel.position();
+		while (true) {
+			ahead.clear();
+			int n = channel.read(ahead, position);
+			if (n < 0) {
+				return count;
+			}
+			byte[] more = ahead.array();
+			for (int i=0; i < n; i++) {
+				if (more[i] == '\n') {
+					return count;
+				}
+				if (more[i] == '(') {
+					count++;
+				}
+			}
+			position += n;
+		}
+	}
+
+	/**
+	 * Skips spaces, tabs and carriage returns.
+	 *
+	 * @return Next byte after the blanks, not consumed, or -1 at the end of the channel
+	 */
+	private int skipBlanks() throws IOException {
+		int b = peek();
+		while (b != -1 && isBlank(b)) {
+			pos++;
+			b = peek();
+		}
+		return b;
+	}
+
+	/**
+	 * Skips the rest of the current line, including its newline.
+	 */
+	private void skipLine() throws IOException {
+		int b = peek();
+		while (b != -1 && b != '\n') {
+			pos++;
+			b = peek();
+		}
+		if (b == '\n') {
+			pos++;
+			line++;
+		}
+	}
+
+	/**
+	 * Reads an optionally signed decimal integer.
+	 *
+	 * @return Integer read
+	 * @throws IOException If there is no integer at the current position
+	 */
+	private int readInt() throws IOException {
+		boolean negative = false;
+		int b = peek();
+		if (b == '-') {
+			negative = true;
+			pos++;
+			b = peek();
+		}
+		if (b < '0' || b > '9') {
+			throw error("expected a number");
+		}
+		long n = 0;
+		do {
+			n = n*10 + (b - '0');
+			if (n > 2147483648L) {
+				throw error("number out of range");
+			}
+			pos++;
+			b = peek();
+		} while (b >= '0' && b <= '9');
+		if (negative) {
+			n = -n;
+		}
+		if (n > Integer.MAX_VALUE) {
+			throw error("number out of range");
+		}
+		return (int)n;
+	}
+
+	/**
+	 * Skips blanks and consumes the given character.
+	 *
+	 * @param ch Expected character
+	 * @throws IOException If the next character is not the expected one
+	 */
+	private void expect(char ch) throws IOException {
+		if (skipBlanks() != ch) {
+			throw error("expected '" + ch + "'");
+		}
+		pos++;
+	}
+
+	/**
+	 * Creates an exception for malformed input at the current line.
+	 */
+	private IOException error(String message) {
+		return new IOException("line " + line + ": " + message);
+	}
+
+	private static boolean isBlank(int b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+}
@@ -0,0 +1,87 @@
+package structures;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An int array held outside the Java heap, in direct byte buffers, so that a very large
+ * array neither counts against the heap nor is copied by the garbage collector. The
+ * array is split into chunks of CHUNK_INTS elements, since one buffer holds at most 2 GB.
+ * Reading elements is safe from any number of threads at once.
+ * 
+ * @author ru-nb-cs112
+ *
+ */
+public class DirectIntArray implements IntArray {
+
+	/**
+	 * Log base 2 of the number of elements in a chunk.
+	 */
+	private static final int CHUNK_BITS = 26;
+
+	/**
+	 * Number of elements in a chunk (64M elements, 256 MB).
+	 */
+	public static final int CHUNK_INTS = 1 << CHUNK_BITS;
+
+	/**
+	 * Length of the array.
+	 */
+	private final int length;
+
+	/**
+	 * Chunks of the array, in order; every chunk but the last is full.
+	 */
+	private final ByteBuffer[] chunks;
+
+	/**
+	 * Initializes an array of the given length, all zero.
+	 * 
+	 * @param length Length of the array.
+	 */
+	public DirectIntArray(int length) {
+		if (length < 0) {
+			throw new NegativeArraySizeException(String.valueOf(length));
+		}
+		this.length = length;
+		chunks = new ByteBuffer[(int)(((long)length + CHUNK_INTS - 1) >>> CHUNK_BITS)];
+		for (int i=0; i < chunks.length; i++) {
+			int ints = Math.min(CHUNK_INTS, length - (i << CHUNK_BITS));
+			chunks[i] = ByteBuffer.allocateDirect(ints*4).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see structures.IntArray#length()
+	 */
+	public int length() {
+		return length;
+	}
+
+	/* (non-Javadoc)
+	 * @see structures.IntArray#get(int)
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return chunks[index >>> CHUNK_BITS].getInt((index & (CHUNK_INTS-1)) << 2);
+	}
+
+	/* (non-Javadoc)
+	 * @see structures.IntArray#set(int, int)
+	 */
+	public void set(int index, int value) {
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		chunks[index >>> CHUNK_BITS].putInt((index & (CHUNK_INTS-1)) << 2, value);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "direct(length " + length + ")";
+	}
+}
@@ -0,0 +1,159 @@
+package structures;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A stack of primitive float values, backed by an array that grows as needed, so that
+ * pushing and popping never box or allocate once the stack has reached its working size.
+ * 
+ * @author ru-nb-cs112
+ *
+ */
+public class FloatStack {
+
+	/**
+	 * Items in the stack, bottom first.
+	 */
+	private float[] items;
+
+	/**
+	 * Number of items in the stack.
+	 */
+	private int size;
+
+	/**
+	 * Largest number of items the stack has held since the last resetPeak.
+	 */
+	private int peak;
+
+	/**
+	 * Initializes stack to empty.
+	 */
+	public FloatStack() {
+		this(16);
+	}
+
+	/**
+	 * Initializes stack to empty, with room for the given number of items.
+	 * 
+	 * @param capacity Initial capacity.
+	 */
+	public FloatStack(int capacity) {
+		items = new float[Math.max(1, capacity)];
+		size = 0;
+	}
+
+	/**
+	 * Pushes a new item on top of stack.
+	 * 
+	 * @param item Item to push.
+	 */
+	public void push(float item) {
+		if (size == items.length) {
+			items = Arrays.copyOf(items, size*2);
+		}
+		items[size++] = item;
+		if (size > peak) {
+			peak = size;
+		}
+	}
+
+	/**
+	 * Pops item at top of stack and returns it.
+	 * 
+	 * @return Popped item.
+	 * @throws NoSuchElementException If stack is empty.
+	 */
+	public float pop() 
+	throws NoSuchElementException {
+		if (size == 0) {
+			throw new NoSuchElementException("can't pop from an empty stack");
+		}
+		return items[--size];
+	}
+
+	/**
+	 * Returns item on top of stack, without popping it.
+	 * 
+	 * @return Item at top of stack.
+	 * @throws NoSuchElementException If stack is empty.
+	 */
+	public float peek() 
+	throws NoSuchElementException {
+		if (size == 0) {
+			throw new NoSuchElementException("can't peek on an empty stack");
+		}
+		return items[size-1];
+	}
+
+	/**
+	 * Returns the item at the given position, counting from the bottom of the stack.
+	 * 
+	 * @param index Position, 0 for the bottom item.
+	 * @return Item at that position.
+	 * @throws IndexOutOfBoundsException If there is no item at that position.
+	 */
+	public float get(int index) 
+	throws IndexOutOfBoundsException {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("no item at " + index);
+		}
+		return items[index];
+	}
+
+	/**
+	 * Pops items until the stack holds the given number of items.
+	 * 
+	 * @param newSize Number of items to keep.
+	 * @throws IllegalArgumentException If the stack holds fewer items than that.
+	 */
+	public void popTo(int newSize) {
+		if (newSize < 0 || newSize > size) {
+			throw new IllegalArgumentException("can't pop to size " + newSize);
+		}
+		size = newSize;
+	}
+
+	/**
+	 * Tells if stack is empty.
+	 * 
+	 * @return True if stack is empty, false if not.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns number of items in stack.
+	 * 
+	 * @return Number of items in stack.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the largest number of items the stack has held since it was created or
+	 * resetPeak was last called.
+	 * 
+	 * @return High-water mark of the stack.
+	 */
+	public int peak() {
+		return peak;
+	}
+
+	/**
+	 * Starts a new high-water mark from the current number of items.
+	 */
+	public void resetPeak() {
+		peak = size;
+	}
+
+	/**
+	 * Empties the stack, keeping its capacity.
+	 */
+	public void clear() {
+		size = 0;
+	}
+}
@@ -0,0 +1,36 @@
+package structures;
+
+/**
+ * A fixed-length array of int values, all zero to begin with, whose storage is up to
+ * the implementation.
+ * 
+ * @author ru-nb-cs112
+ *
+ */
+public interface IntArray {
+
+	/**
+	 * Returns the number of elements.
+	 * 
+	 * @return Length of the array.
+	 */
+	int length();
+
+	/**
+	 * Returns the element at the given index.
+	 * 
+	 * @param index Index of the element.
+	 * @return Element.
+	 * @throws ArrayIndexOutOfBoundsException If index is not less than length and at least 0.
+	 */
+	int get(int index);
+
+	/**
+	 * Sets the element at the given index.
+	 * 
+	 * @param index Index of the element.
+	 * @param value New value of the element.
+	 * @throws ArrayIndexOutOfBoundsException If index is not less than length and at least 0.
+	 */
+	void set(int index, int value);
+}
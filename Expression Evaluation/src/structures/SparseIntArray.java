@@ -0,0 +1,201 @@
+package structures;
+
+import java.util.Arrays;
+
+/**
+ * An int array that stores only the elements that have been set, in an open-addressing
+ * hash table of primitive index and value arrays, so an array with a few elements set
+ * out of millions takes space for the few. Elements that have not been set are zero.
+ * 
+ * @author ru-nb-cs112
+ *
+ */
+public class SparseIntArray implements IntArray {
+
+	/**
+	 * Marks an empty slot of the table; indexes are never negative.
+	 */
+	private static final int EMPTY = -1;
+
+	/**
+	 * Length of the array.
+	 */
+	private final int length;
+
+	/**
+	 * Index stored in each slot of the table, or EMPTY.
+	 */
+	private int[] indexes;
+
+	/**
+	 * Value stored in each slot of the table.
+	 */
+	private int[] values;
+
+	/**
+	 * Number of elements stored.
+	 */
+	private int size;
+
+	/**
+	 * Initializes an array of the given length with no elements stored.
+	 * 
+	 * @param length Length of the array.
+	 */
+	public SparseIntArray(int length) {
+		this(length, 0);
+	}
+
+	/**
+	 * Initializes an array of the given length with no elements stored, and a table
+	 * large enough to store the given number of elements without growing.
+	 * 
+	 * @param length Length of the array.
+	 * @param expected Number of elements that will be stored.
+	 */
+	public SparseIntArray(int length, int expected) {
+		if (length < 0) {
+			throw new NegativeArraySizeException(String.valueOf(length));
+		}
+		this.length = length;
+		int capacity = 16;
+		while (capacity < 2L*expected) {
+			capacity <<= 1;
+		}
+		indexes = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(indexes, EMPTY);
+	}
+
+	/**
+	 * Returns the number of slots in the table, which is at least twice the number of
+	 * elements stored.
+	 * 
+	 * @return Number of slots.
+	 */
+	public int capacity() {
+		return indexes.length;
+	}
+
+	/* (non-Javadoc)
+	 * @see structures.IntArray#length()
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of elements stored, which is the number of different indexes
+	 * that have been set.
+	 * 
+	 * @return Number of elements stored.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see structures.IntArray#get(int)
+	 */
+	public int get(int index) {
+		check(index);
+		int mask = indexes.length-1;
+		for (int i = hash(index) & mask; ; i = (i+1) & mask) {
+			if (indexes[i] == index) {
+				return values[i];
+			}
+			if (indexes[i] == EMPTY) {
+				return 0;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see structures.IntArray#set(int, int)
+	 */
+	public void set(int index, int value) {
+		check(index);
+		int mask = indexes.length-1;
+		int i = hash(index) & mask;
+		while (indexes[i] != EMPTY && indexes[i] != index) {
+			i = (i+1) & mask;
+		}
+		if (indexes[i] == EMPTY) {
+			if (value == 0) {
+				return;
+			}
+			indexes[i] = index;
+			size++;
+		}
+		values[i] = value;
+		if (size*2 > indexes.length) {
+			grow();
+		}
+	}
+
+	/**
+	 * Copies the stored elements into another array of at least the same length.
+	 * 
+	 * @param target Array that receives the elements.
+	 */
+	public void copyTo(IntArray target) {
+		for (int i=0; i < indexes.length; i++) {
+			if (indexes[i] != EMPTY) {
+				target.set(indexes[i], values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Copies the stored elements into an int array of at least the same length.
+	 * 
+	 * @param target Array that receives the elements.
+	 */
+	public void copyTo(int[] target) {
+		for (int i=0; i < indexes.length; i++) {
+			if (indexes[i] != EMPTY) {
+				target[indexes[i]] = values[i];
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "sparse(length " + length + ", " + size + " stored)";
+	}
+
+	/**
+	 * Doubles the table and rehashes the stored elements.
+	 */
+	private void grow() {
+		int[] oldIndexes = indexes;
+		int[] oldValues = values;
+		indexes = new int[oldIndexes.length*2];
+		values = new int[oldValues.length*2];
+		Arrays.fill(indexes, EMPTY);
+		int mask = indexes.length-1;
+		for (int j=0; j < oldIndexes.length; j++) {
+			if (oldIndexes[j] != EMPTY) {
+				int i = hash(oldIndexes[j]) & mask;
+				while (indexes[i] != EMPTY) {
+					i = (i+1) & mask;
+				}
+				indexes[i] = oldIndexes[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	private void check(int index) {
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+	}
+
+	private static int hash(int index) {
+		int h = index * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -1,10 +1,11 @@
 package structures;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 /**
- * A generic stack implementation.
+ * A generic stack implementation, backed by an array that grows as needed. For
+ * numbers, FloatStack, IntStack and CharStack hold primitive values without boxing.
  * 
  * @author ru-nb-cs111
  *
@@ -13,15 +14,30 @@ import java.util.NoSuchElementException;
 public class Stack<T> {
 
 	/**
-	 * Items in the stack.
+	 * Items in the stack, bottom first.
 	 */
-	private ArrayList<T> items;
+	private Object[] items;
+
+	/**
+	 * Number of items in the stack.
+	 */
+	private int size;
 
 	/**
 	 * Initializes stack to empty.
 	 */
 	public Stack() {
-		items = new ArrayList<T>();
+		this(16);
+	}
+
+	/**
+	 * Initializes stack to empty, with room for the given number of items.
+	 * 
+	 * @param capacity Initial capacity.
+	 */
+	public Stack(int capacity) {
+		items = new Object[Math.max(1, capacity)];
+		size = 0;
 	}
 
 	/**
@@ -30,7 +46,10 @@ public class Stack<T> {
 	 * @param item Item to push.
 	 */
 	public void push(T item) {
-		items.add(item);
+		if (size == items.length) {
+			items = Arrays.copyOf(items, size*2);
+		}
+		items[size++] = item;
 	}
 
 	/**
@@ -41,11 +60,14 @@ public class Stack<T> {
 	 */
 	public T pop() 
 	throws NoSuchElementException {
-		if (items.isEmpty()) {
+		if (size == 0) {
 			//return null;
 			throw new NoSuchElementException("can't pop from an empty stack");
 		}
-		return items.remove(items.size()-1);
+		@SuppressWarnings("unchecked")
+		T item = (T)items[--size];
+		items[size] = null;
+		return item;
 	}
 
 	/**
@@ -56,11 +78,13 @@ public class Stack<T> {
 	 */
 	public T peek() 
 	throws NoSuchElementException {
-		if (items.size() == 0) {
+		if (size == 0) {
 			//return null;
 			throw new NoSuchElementException("can't peek on an empty stack");
 		}
-		return items.get(items.size()-1);
+		@SuppressWarnings("unchecked")
+		T item = (T)items[size-1];
+		return item;
 	}
 
 	/**
@@ -69,7 +93,7 @@ public class Stack<T> {
 	 * @return True if stack is empty, false if not.
 	 */
 	public boolean isEmpty() {
-		return items.isEmpty();
+		return size == 0;
 	}
 
 	/**
@@ -78,13 +102,14 @@ public class Stack<T> {
 	 * @return Number of items in stack.
 	 */
 	public int size() {
-		return items.size();
+		return size;
 	}
 
 	/**
-	 * Empties the stack.
+	 * Empties the stack, keeping its capacity.
 	 */
 	public void clear() {
-		items.clear();
+		Arrays.fill(items, 0, size, null);
+		size = 0;
 	}
 }
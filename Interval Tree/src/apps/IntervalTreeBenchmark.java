@@ -0,0 +1,467 @@
+package apps;
+
+import structures.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times the construction of an IntervalTree from random intervals of several sizes,
+ * and queries on it, and prints one "label,case,method,score" CSV line per measurement,
+ * in the same form as the expression benchmarks. Scores are milliseconds per build for
+ * methods ending in ".ms", nanoseconds per query or per insert or delete for methods
+ * ending in ".ns", bytes
+ * allocated per query for methods ending in ".bytes", queries answered per second for
+ * methods ending in ".qps", and the average number of intervals found per query for
+ * "results". Methods ending in ".false" count the intervals the static tree returned
+ * that do not intersect the query, and methods ending in ".missed" the intersecting
+ * intervals it did not return, over all queries; both come from the float split values
+ * of IntervalTree, which cannot hold every endpoint this large. The intervals look like ranges on a chromosome: left endpoints spread
+ * over 250 million positions, and lengths of up to 10,000.
+ *
+ * @author runb-cs112
+ */
+public class IntervalTreeBenchmark {
+
+	/**
+	 * Number of positions the left endpoints are spread over
+	 */
+	static final int SPAN = 250000000;
+
+	/**
+	 * Largest interval length
+	 */
+	static final int MAX_LENGTH = 10000;
+
+	/**
+	 * Number of intervals built per size, in total over all rounds, so that small
+	 * sizes are built many times and large ones once
+	 */
+	static final int WORK = 2000000;
+
+	/**
+	 * Number of queries per measurement
+	 */
+	static final int QUERIES = 200000;
+
+	/**
+	 * Largest number of intervals that queries are timed on, since every layout of the
+	 * tree must fit in memory at once
+	 */
+	static final int MAX_QUERY_SIZE = 1000000;
+
+	/**
+	 * Label of the run, written in the first column of every line
+	 */
+	static String label = "dev";
+
+	/**
+	 * Stream the lines are written to
+	 */
+	static PrintStream out = System.out;
+
+	/**
+	 * Sink for results, so that the JIT cannot discard the measured work
+	 */
+	static long sink;
+
+	/**
+	 * @param args Options -label NAME, for the first column, and -out FILE, to write
+	 *        the lines to a file instead of the console; then the numbers of intervals
+	 *        to build trees of, by default 10000, 1000000 and 10000000
+	 */
+	public static void main(String[] args) throws IOException {
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		for (int i=0; i < args.length; i++) {
+			if (args[i].equals("-label") && i+1 < args.length) {
+				label = args[++i];
+			} else if (args[i].equals("-out") && i+1 < args.length) {
+				out = new PrintStream(new FileOutputStream(args[++i]), true);
+			} else {
+				sizes.add(Integer.parseInt(args[i]));
+			}
+		}
+		if (sizes.isEmpty()) {
+			sizes.add(10000);
+			sizes.add(1000000);
+			sizes.add(10000000);
+		}
+		out.println("label,case,method,score");
+		for (int n: sizes) {
+			benchmarkBuild(n);
+			if (n <= MAX_QUERY_SIZE) {
+				benchmarkQueries(n);
+				benchmarkBatch(n);
+				benchmarkDynamic(n);
+			}
+		}
+	}
+
+	/**
+	 * Generates random intervals.
+	 *
+	 * @param n Number of intervals
+	 * @param random Source of the endpoints
+	 * @return Intervals
+	 */
+	static ArrayList<Interval> generate(int n, Random random) {
+		ArrayList<Interval> intervals = new ArrayList<Interval>(n);
+		for (int i=0; i < n; i++) {
+			int left = random.nextInt(SPAN);
+			intervals.add(new Interval(left, left + 1 + random.nextInt(MAX_LENGTH), "iv"));
+		}
+		return intervals;
+	}
+
+	/**
+	 * Times the phases of building a tree of n intervals, and the whole build.
+	 *
+	 * @param n Number of intervals
+	 */
+	static void benchmarkBuild(int n) {
+		String name = "build-" + n;
+		ArrayList<Interval> intervals = generate(n, new Random(112));
+		int rounds = Math.max(1, WORK / n);
+
+		// one untimed build, so that the timed ones run compiled code
+		sink += new IntervalTree(new ArrayList<Interval>(intervals)).getRoot().hashCode();
+
+		long sort = 0, endPoints = 0, nodes = 0, build = 0;
+		for (int r=0; r < rounds; r++) {
+			ArrayList<Interval> left = new ArrayList<Interval>(intervals);
+			ArrayList<Interval> right = new ArrayList<Interval>(intervals);
+			long start = System.nanoTime();
+			IntervalTree.sortIntervals(left, 'l');
+			IntervalTree.sortIntervals(right, 'r');
+			long sorted = System.nanoTime();
+			int[] points = IntervalTree.sortedEndPoints(left, right);
+			long merged = System.nanoTime();
+			IntervalTreeNode root = IntervalTree.buildTreeNodes(points);
+			long built = System.nanoTime();
+			sort += sorted - start;
+			endPoints += merged - sorted;
+			nodes += built - merged;
+			sink += points.length + root.hashCode();
+			left = null;
+			right = null;
+			root = null;
+
+			ArrayList<Interval> copy = new ArrayList<Interval>(intervals);
+			start = System.nanoTime();
+			IntervalTree tree = new IntervalTree(copy);
+			build += System.nanoTime() - start;
+			sink += tree.getRoot().hashCode();
+		}
+		row(name, "sort.ms", sort / 1e6 / rounds);
+		row(name, "endpoints.ms", endPoints / 1e6 / rounds);
+		row(name, "nodes.ms", nodes / 1e6 / rounds);
+		row(name, "build.ms", build / 1e6 / rounds);
+	}
+
+	/**
+	 * Times queries for random intervals like the ones in the tree, on the tree and on
+	 * a flat copy of it, each returning lists, visiting the intervals found, or only
+	 * counting them, after checking that all of them give the same answers.
+	 *
+	 * @param n Number of intervals in the tree
+	 * @throws IllegalStateException If the answers differ
+	 */
+	static void benchmarkQueries(int n) {
+		String name = "query-" + n;
+		final IntervalTree tree = new IntervalTree(generate(n, new Random(112)));
+		final FlatIntervalTree flat = new FlatIntervalTree(tree);
+		final Interval[] queries = generate(QUERIES, new Random(113)).toArray(new Interval[QUERIES]);
+		final ArrayList<Interval> visited = new ArrayList<Interval>();
+		IntervalVisitor collector = new IntervalVisitor() {
+			public void visit(Interval interval) {
+				visited.add(interval);
+			}
+		};
+		long results = 0, falseHits = 0;
+		for (Interval q: queries) {
+			ArrayList<Interval> expected = tree.findIntersectingIntervals(q);
+			for (Interval iv: expected) {
+				if (!iv.intersects(q)) {
+					falseHits++;
+				}
+			}
+			if (!expected.equals(flat.findIntersectingIntervals(q))) {
+				throw new IllegalStateException(name + ": flat and tree results differ for " + q);
+			}
+			visited.clear();
+			tree.findIntersectingIntervals(q, collector);
+			if (!expected.equals(visited)) {
+				throw new IllegalStateException(name + ": tree visitor and list results differ for " + q);
+			}
+			visited.clear();
+			flat.findIntersectingIntervals(q, collector);
+			if (!expected.equals(visited)) {
+				throw new IllegalStateException(name + ": flat visitor and list results differ for " + q);
+			}
+			if (tree.countIntersectingIntervals(q) != expected.size() ||
+					flat.countIntersectingIntervals(q) != expected.size()) {
+				throw new IllegalStateException(name + ": count and list results differ for " + q);
+			}
+			results += expected.size();
+		}
+		final IntervalVisitor counter = new IntervalVisitor() {
+			public void visit(Interval interval) {
+				sink++;
+			}
+		};
+		row(name, "results", (double)results / QUERIES);
+		row(name, "tree.false", falseHits);
+		report(name, "tree", new Runnable() {
+			public void run() {
+				for (Interval q: queries) {
+					sink += tree.findIntersectingIntervals(q).size();
+				}
+			}
+		});
+		report(name, "tree.visit", new Runnable() {
+			public void run() {
+				for (Interval q: queries) {
+					tree.findIntersectingIntervals(q, counter);
+				}
+			}
+		});
+		report(name, "tree.count", new Runnable() {
+			public void run() {
+				for (Interval q: queries) {
+					sink += tree.countIntersectingIntervals(q);
+				}
+			}
+		});
+		report(name, "flat", new Runnable() {
+			public void run() {
+				for (Interval q: queries) {
+					sink += flat.findIntersectingIntervals(q).size();
+				}
+			}
+		});
+		report(name, "flat.visit", new Runnable() {
+			public void run() {
+				for (Interval q: queries) {
+					flat.findIntersectingIntervals(q, counter);
+				}
+			}
+		});
+		report(name, "flat.count", new Runnable() {
+			public void run() {
+				for (Interval q: queries) {
+					sink += flat.countIntersectingIntervals(q);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Answers a batch of queries on the tree and on a flat copy of it with pools of 1
+	 * and 4 threads and of one thread per processor, in query order and sorted, and
+	 * prints the number of queries answered per second, after checking that the answers
+	 * are those of one query at a time.
+	 *
+	 * @param n Number of intervals in the tree
+	 * @throws IllegalStateException If the answers differ
+	 */
+	static void benchmarkBatch(int n) {
+		String name = "batch-" + n;
+		IntervalTree tree = new IntervalTree(generate(n, new Random(112)));
+		FlatIntervalTree flat = new FlatIntervalTree(tree);
+		final Interval[] queries = generate(QUERIES, new Random(113)).toArray(new Interval[QUERIES]);
+		TreeSet<Integer> levels = new TreeSet<Integer>(Arrays.asList(1, 4, Runtime.getRuntime().availableProcessors()));
+		String[] names = {"tree", "flat"};
+		IntervalIndex[] indexes = {tree, flat};
+		for (int k=0; k < indexes.length; k++) {
+			final IntervalIndex index = indexes[k];
+			for (int parallelism: levels) {
+				final ForkJoinPool pool = new ForkJoinPool(parallelism);
+				ArrayList<ArrayList<Interval>> lists = IntervalBatch.findIntersectingIntervals(index, queries, pool, true);
+				int[] counts = IntervalBatch.countIntersectingIntervals(index, queries, pool, false);
+				for (int i=0; i < QUERIES; i++) {
+					ArrayList<Interval> expected = tree.findIntersectingIntervals(queries[i]);
+					if (!expected.equals(lists.get(i)) || counts[i] != expected.size()) {
+						throw new IllegalStateException(name + ": batch and single results differ for " + queries[i]);
+					}
+				}
+				for (final boolean sort: new boolean[] {false, true}) {
+					String method = names[k] + ".p" + parallelism + (sort ? ".sorted" : "");
+					row(name, method + ".list.qps", QUERIES / (time(new Runnable() {
+						public void run() {
+							sink += IntervalBatch.findIntersectingIntervals(index, queries, pool, sort).size();
+						}
+					}) / 1e9));
+					row(name, method + ".count.qps", QUERIES / (time(new Runnable() {
+						public void run() {
+							sink += IntervalBatch.countIntersectingIntervals(index, queries, pool, sort).length;
+						}
+					}) / 1e9));
+				}
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Times inserts into and deletes from a dynamic tree, and queries on it, after
+	 * checking that it finds the same intervals as the static tree, before and after
+	 * half of them are deleted. Every delete is followed by an insert, like a schedule
+	 * whose entries are moved, so the tree keeps its size.
+	 *
+	 * @param n Number of intervals in the tree
+	 * @throws IllegalStateException If the answers differ
+	 */
+	static void benchmarkDynamic(int n) {
+		String name = "dynamic-" + n;
+		final ArrayList<Interval> intervals = generate(n, new Random(112));
+		final ArrayList<Interval> moved = generate(n, new Random(114));
+		final Interval[] queries = generate(QUERIES, new Random(113)).toArray(new Interval[QUERIES]);
+
+		final DynamicIntervalTree dynamic = new DynamicIntervalTree(intervals);
+		check(name, "tree", dynamic, new IntervalTree(new ArrayList<Interval>(intervals)), queries);
+		ArrayList<Interval> remaining = new ArrayList<Interval>();
+		for (int i=0; i < n; i++) {
+			if (i % 2 == 0) {
+				if (!dynamic.delete(intervals.get(i))) {
+					throw new IllegalStateException(name + ": could not delete " + intervals.get(i));
+				}
+			} else {
+				remaining.add(intervals.get(i));
+			}
+		}
+		check(name, "half.tree", dynamic, new IntervalTree(remaining), queries);
+
+		row(name, "insert.ns", time(new Runnable() {
+			public void run() {
+				DynamicIntervalTree tree = new DynamicIntervalTree();
+				for (Interval iv: intervals) {
+					tree.insert(iv);
+				}
+				sink += tree.size();
+			}
+		}) / n);
+		for (int i=0; i < n; i += 2) {
+			dynamic.insert(intervals.get(i));
+		}
+		// each run moves every interval and then moves it back, 4n updates in all
+		row(name, "update.ns", time(new Runnable() {
+			public void run() {
+				for (int i=0; i < intervals.size(); i++) {
+					dynamic.delete(intervals.get(i));
+					dynamic.insert(moved.get(i));
+				}
+				for (int i=0; i < intervals.size(); i++) {
+					dynamic.delete(moved.get(i));
+					dynamic.insert(intervals.get(i));
+				}
+				sink += dynamic.size();
+			}
+		}) / (4.0 * n));
+		report(name, "dynamic", new Runnable() {
+			public void run() {
+				for (Interval q: queries) {
+					sink += dynamic.findIntersectingIntervals(q).size();
+				}
+			}
+		});
+		report(name, "dynamic.count", new Runnable() {
+			public void run() {
+				for (Interval q: queries) {
+					sink += dynamic.countIntersectingIntervals(q);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Checks that a dynamic tree finds exactly the intervals that intersect each query,
+	 * as the static tree finds them, in any order. The split values of the static tree
+	 * are floats, which cannot hold every endpoint this large, so it can also return
+	 * intervals that only end next to the query, or leave out ones that do intersect it.
+	 * Those are counted and printed with the given method name, ending in ".false" and
+	 * ".missed", rather than failing the check.
+	 *
+	 * @param name Case name
+	 * @param method Method name of the static tree
+	 * @throws IllegalStateException If the dynamic tree returns an interval that does
+	 *         not intersect the query, or leaves out one the static tree found, or its
+	 *         count differs from its list
+	 */
+	private static void check(String name, String method, DynamicIntervalTree dynamic, IntervalTree tree,
+			Interval[] queries) {
+		long falseHits = 0, missed = 0;
+		for (Interval q: queries) {
+			HashSet<Interval> found = new HashSet<Interval>(dynamic.findIntersectingIntervals(q));
+			for (Interval iv: found) {
+				if (!iv.intersects(q)) {
+					throw new IllegalStateException(name + ": dynamic tree returned " + iv + " for " + q);
+				}
+			}
+			int matched = 0;
+			for (Interval iv: tree.findIntersectingIntervals(q)) {
+				if (!iv.intersects(q)) {
+					falseHits++;
+				} else if (found.contains(iv)) {
+					matched++;
+				} else {
+					throw new IllegalStateException(name + ": dynamic tree left out " + iv + " for " + q);
+				}
+			}
+			if (dynamic.countIntersectingIntervals(q) != found.size()) {
+				throw new IllegalStateException(name + ": count and list results differ for " + q);
+			}
+			missed += found.size() - matched;
+		}
+		row(name, method + ".false", falseHits);
+		row(name, method + ".missed", missed);
+	}
+
+	/**
+	 * Times a run of queries, and measures the bytes it allocates, and prints both per
+	 * query. The bytes are left out if the JVM cannot count allocated bytes per thread.
+	 *
+	 * @param name Case name
+	 * @param method Method name
+	 * @param op Operation that runs every query once
+	 */
+	static void report(String name, String method, Runnable op) {
+		row(name, method + ".ns", time(op) / QUERIES);
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (mx instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)mx;
+			long id = Thread.currentThread().getId();
+			long before = threads.getThreadAllocatedBytes(id);
+			op.run();
+			row(name, method + ".bytes", (double)(threads.getThreadAllocatedBytes(id) - before) / QUERIES);
+		}
+	}
+
+	/**
+	 * Runs an operation a few times to warm up, then once more timed.
+	 *
+	 * @param op Operation to time
+	 * @return Nanoseconds taken by the timed run
+	 */
+	static double time(Runnable op) {
+		for (int i=0; i < 3; i++) {
+			op.run();
+		}
+		long start = System.nanoTime();
+		op.run();
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Prints one measurement.
+	 *
+	 * @param name Case name
+	 * @param method Method name
+	 * @param score Score
+	 */
+	static void row(String name, String method, double score) {
+		out.println(label + "," + name + "," + method + "," + String.format(Locale.ROOT, "%.2f", score));
+	}
+}
@@ -0,0 +1,310 @@
+package structures;
+
+import java.util.ArrayList;
+
+/**
+ * An interval tree that intervals can be inserted into and deleted from one at a time,
+ * for sets of intervals that keep changing. It is an AVL tree of intervals ordered on
+ * left endpoint, then right endpoint, in which every node also keeps the largest right
+ * endpoint in its subtree. Insert, delete and the search for the first intersecting
+ * interval all take O(log n) time; a query that finds k intervals takes
+ * O(k log n) at most, and usually close to O(k + log n).
+ *
+ * Queries find every interval that intersects the query, in order of left endpoint.
+ * The same interval object may be inserted more than once, and each insert needs its
+ * own delete.
+ *
+ * @author runb-cs112
+ */
+public class DynamicIntervalTree implements IntervalIndex {
+
+	/**
+	 * Node of the tree.
+	 */
+	static class Node {
+
+		/**
+		 * Interval at this node
+		 */
+		Interval interval;
+
+		/**
+		 * Largest right endpoint of the intervals in the subtree rooted at this node
+		 */
+		int maxRight;
+
+		/**
+		 * Height of the subtree rooted at this node, 1 for a leaf
+		 */
+		int height;
+
+		/**
+		 * Left and right children
+		 */
+		Node left, right;
+
+		Node(Interval interval) {
+			this.interval = interval;
+			maxRight = interval.rightEndPoint;
+			height = 1;
+		}
+	}
+
+	/**
+	 * Root of the tree, null if the tree is empty
+	 */
+	Node root;
+
+	/**
+	 * Number of intervals in the tree
+	 */
+	int size;
+
+	/**
+	 * Initializes an empty tree.
+	 */
+	public DynamicIntervalTree() {
+		root = null;
+		size = 0;
+	}
+
+	/**
+	 * Initializes a tree holding the given intervals.
+	 *
+	 * @param intervals Intervals to insert
+	 */
+	public DynamicIntervalTree(ArrayList<Interval> intervals) {
+		this();
+		for (Interval iv: intervals) {
+			insert(iv);
+		}
+	}
+
+	/**
+	 * Returns the number of intervals in this tree.
+	 *
+	 * @return Number of intervals
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Inserts an interval.
+	 *
+	 * @param interval Interval to insert
+	 */
+	public void insert(Interval interval) {
+		root = insert(root, interval);
+		size++;
+	}
+
+	private static Node insert(Node n, Interval interval) {
+		if (n == null) {
+			return new Node(interval);
+		}
+		if (compare(interval, n.interval) < 0) {
+			n.left = insert(n.left, interval);
+		} else {
+			n.right = insert(n.right, interval);
+		}
+		return balance(n);
+	}
+
+	/**
+	 * Deletes an interval. The interval is found by identity, not by its endpoints, so
+	 * another interval with the same endpoints is left alone.
+	 *
+	 * @param interval Interval to delete
+	 * @return True if the interval was found and deleted, false if it is not in the tree
+	 */
+	public boolean delete(Interval interval) {
+		int before = size;
+		root = delete(root, interval);
+		return size < before;
+	}
+
+	private Node delete(Node n, Interval interval) {
+		if (n == null) {
+			return null;
+		}
+		int c = compare(interval, n.interval);
+		if (c < 0) {
+			n.left = delete(n.left, interval);
+		} else if (c > 0) {
+			n.right = delete(n.right, interval);
+		} else if (n.interval != interval) {
+			// intervals with the same endpoints may be on either side
+			int before = size;
+			n.left = delete(n.left, interval);
+			if (size == before) {
+				n.right = delete(n.right, interval);
+			}
+		} else {
+			size--;
+			if (n.left == null) {
+				return n.right;
+			}
+			if (n.right == null) {
+				return n.left;
+			}
+			// replace with the first interval of the right subtree
+			Node first = n.right;
+			while (first.left != null) {
+				first = first.left;
+			}
+			n.interval = first.interval;
+			n.right = deleteFirst(n.right);
+		}
+		return balance(n);
+	}
+
+	private static Node deleteFirst(Node n) {
+		if (n.left == null) {
+			return n.right;
+		}
+		n.left = deleteFirst(n.left);
+		return balance(n);
+	}
+
+	/**
+	 * Orders intervals on left endpoint, then right endpoint.
+	 */
+	private static int compare(Interval a, Interval b) {
+		if (a.leftEndPoint != b.leftEndPoint) {
+			return a.leftEndPoint < b.leftEndPoint ? -1 : 1;
+		}
+		if (a.rightEndPoint != b.rightEndPoint) {
+			return a.rightEndPoint < b.rightEndPoint ? -1 : 1;
+		}
+		return 0;
+	}
+
+	private static int height(Node n) {
+		return n == null ? 0 : n.height;
+	}
+
+	/**
+	 * Recomputes the height and largest right endpoint of a node from its children.
+	 */
+	private static void update(Node n) {
+		n.height = 1 + Math.max(height(n.left), height(n.right));
+		n.maxRight = n.interval.rightEndPoint;
+		if (n.left != null && n.left.maxRight > n.maxRight) {
+			n.maxRight = n.left.maxRight;
+		}
+		if (n.right != null && n.right.maxRight > n.maxRight) {
+			n.maxRight = n.right.maxRight;
+		}
+	}
+
+	/**
+	 * Updates a node whose subtrees have changed, and rotates it if their heights now
+	 * differ by more than one.
+	 *
+	 * @return Root of the subtree after balancing
+	 */
+	private static Node balance(Node n) {
+		update(n);
+		int diff = height(n.left) - height(n.right);
+		if (diff > 1) {
+			if (height(n.left.left) < height(n.left.right)) {
+				n.left = rotateLeft(n.left);
+			}
+			return rotateRight(n);
+		}
+		if (diff < -1) {
+			if (height(n.right.right) < height(n.right.left)) {
+				n.right = rotateRight(n.right);
+			}
+			return rotateLeft(n);
+		}
+		return n;
+	}
+
+	private static Node rotateRight(Node n) {
+		Node l = n.left;
+		n.left = l.right;
+		l.right = n;
+		update(n);
+		update(l);
+		return l;
+	}
+
+	private static Node rotateLeft(Node n) {
+		Node r = n.right;
+		n.right = r.left;
+		r.left = n;
+		update(n);
+		update(r);
+		return r;
+	}
+
+	/**
+	 * Gets all intervals in this tree that intersect with a given interval.
+	 *
+	 * @param q The query interval for which intersections are to be found
+	 * @return Array list of all intersecting intervals, in order of left endpoint; size
+	 *         is 0 if there are no intersections
+	 */
+	public ArrayList<Interval> findIntersectingIntervals(Interval q) {
+		final ArrayList<Interval> result = new ArrayList<Interval>();
+		findIntersectingIntervals(q, new IntervalVisitor() {
+			public void visit(Interval interval) {
+				result.add(interval);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Finds all intervals in this tree that intersect with a given interval, and hands
+	 * each to a visitor as soon as it is found, in order of left endpoint. Subtrees whose
+	 * largest right endpoint is left of the query, and right subtrees of intervals that
+	 * start right of it, are skipped.
+	 *
+	 * @param q The query interval for which intersections are to be found
+	 * @param visitor Visitor that receives every intersecting interval
+	 */
+	public void findIntersectingIntervals(Interval q, IntervalVisitor visitor) {
+		visit(root, q, visitor);
+	}
+
+	private static void visit(Node n, Interval q, IntervalVisitor visitor) {
+		while (n != null && n.maxRight >= q.leftEndPoint) {
+			visit(n.left, q, visitor);
+			if (n.interval.leftEndPoint > q.rightEndPoint) {
+				return;
+			}
+			if (n.interval.rightEndPoint >= q.leftEndPoint) {
+				visitor.visit(n.interval);
+			}
+			n = n.right;
+		}
+	}
+
+	/**
+	 * Counts the intervals in this tree that intersect with a given interval.
+	 *
+	 * @param q The query interval for which intersections are to be counted
+	 * @return Number of intersecting intervals
+	 */
+	public int countIntersectingIntervals(Interval q) {
+		return count(root, q);
+	}
+
+	private static int count(Node n, Interval q) {
+		int count = 0;
+		while (n != null && n.maxRight >= q.leftEndPoint) {
+			count += count(n.left, q);
+			if (n.interval.leftEndPoint > q.rightEndPoint) {
+				break;
+			}
+			if (n.interval.rightEndPoint >= q.leftEndPoint) {
+				count++;
+			}
+			n = n.right;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,268 @@
+package structures;
+
+import java.util.ArrayList;
+
+/**
+ * An immutable copy of an interval tree laid out in arrays, for fast queries. Nodes are
+ * numbered in preorder, so the left child of a node is the next node and only the
+ * right child needs to be stored. The intervals of every node are a contiguous slice
+ * of shared arrays, one for the left sorted lists and one for the right sorted lists,
+ * and a query scans the endpoints of a slice in an int array, touching an Interval
+ * object only to return it. A query walks down the right children in a loop and
+ * recurses only into left children.
+ *
+ * Queries return the same intervals, in the same order, as
+ * IntervalTree.findIntersectingIntervals on the tree that was copied, so they share its
+ * float split values and are exact only for endpoints up to 2^24.
+ *
+ * @author runb-cs112
+ */
+public class FlatIntervalTree implements IntervalIndex {
+
+	/**
+	 * Split value of each node
+	 */
+	float[] splitValues;
+
+	/**
+	 * Right child of each node, or -1 for a leaf; the left child of an inner node is
+	 * the node that follows it
+	 */
+	int[] rightChildren;
+
+	/**
+	 * Start of the slice of each node in the interval arrays; the slice of node i ends
+	 * where the slice of node i+1 starts
+	 */
+	int[] starts;
+
+	/**
+	 * Intervals of all nodes, each node's slice sorted on left endpoint
+	 */
+	Interval[] leftSorted;
+
+	/**
+	 * Left endpoints of leftSorted
+	 */
+	int[] leftEndPoints;
+
+	/**
+	 * Intervals of all nodes, each node's slice sorted on right endpoint
+	 */
+	Interval[] rightSorted;
+
+	/**
+	 * Right endpoints of rightSorted
+	 */
+	int[] rightEndPoints;
+
+	/**
+	 * Number of nodes
+	 */
+	int size;
+
+	/**
+	 * Copies an interval tree into arrays.
+	 *
+	 * @param tree Tree to copy
+	 */
+	public FlatIntervalTree(IntervalTree tree) {
+		ArrayList<IntervalTreeNode> preorder = new ArrayList<IntervalTreeNode>();
+		if (tree.getRoot() != null) {
+			collect(tree.getRoot(), preorder);
+		}
+		size = preorder.size();
+		int intervals = 0;
+		for (IntervalTreeNode n: preorder) {
+			intervals += count(n);
+		}
+
+		splitValues = new float[size];
+		rightChildren = new int[size];
+		starts = new int[size+1];
+		leftSorted = new Interval[intervals];
+		leftEndPoints = new int[intervals];
+		rightSorted = new Interval[intervals];
+		rightEndPoints = new int[intervals];
+		if (tree.getRoot() != null) {
+			link(tree.getRoot(), 0);
+		}
+
+		int k = 0;
+		for (int i=0; i < size; i++) {
+			IntervalTreeNode n = preorder.get(i);
+			splitValues[i] = n.splitValue;
+			starts[i] = k;
+			for (int j=0; j < count(n); j++) {
+				leftSorted[k] = n.leftIntervals.get(j);
+				leftEndPoints[k] = leftSorted[k].leftEndPoint;
+				rightSorted[k] = n.rightIntervals.get(j);
+				rightEndPoints[k] = rightSorted[k].rightEndPoint;
+				k++;
+			}
+		}
+		starts[size] = k;
+	}
+
+	/**
+	 * Sets the right child of every node of a subtree.
+	 *
+	 * @param n Root of the subtree
+	 * @param i Number of n in preorder
+	 * @return Number in preorder of the node after the subtree
+	 */
+	private int link(IntervalTreeNode n, int i) {
+		if (n.leftChild == null) {
+			rightChildren[i] = -1;
+			return i+1;
+		}
+		int right = link(n.leftChild, i+1);
+		rightChildren[i] = right;
+		return link(n.rightChild, right);
+	}
+
+	/**
+	 * Adds the nodes of a subtree to a list in preorder.
+	 */
+	private static void collect(IntervalTreeNode n, ArrayList<IntervalTreeNode> preorder) {
+		preorder.add(n);
+		if (n.leftChild != null) {
+			collect(n.leftChild, preorder);
+			collect(n.rightChild, preorder);
+		}
+	}
+
+	/**
+	 * Returns the number of intervals kept for a node. Intervals mapped to a leaf are
+	 * never returned by a query, so none are kept for leaves.
+	 */
+	private static int count(IntervalTreeNode n) {
+		if (n.leftChild == null || n.leftIntervals == null) {
+			return 0;
+		}
+		return n.leftIntervals.size();
+	}
+
+	/**
+	 * Gets all intervals in this tree that intersect with a given interval.
+	 *
+	 * @param q The query interval for which intersections are to be found
+	 * @return Array list of all intersecting intervals; size is 0 if there are no intersections
+	 */
+	public ArrayList<Interval> findIntersectingIntervals(Interval q) {
+		final ArrayList<Interval> result = new ArrayList<Interval>();
+		findIntersectingIntervals(q, new IntervalVisitor() {
+			public void visit(Interval interval) {
+				result.add(interval);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Finds all intervals in this tree that intersect with a given interval, and hands
+	 * each to a visitor as soon as it is found. Every interval at a node contains the
+	 * node's split value, so a node to the right of the query needs only its left
+	 * endpoints checked, and a node to its left only its right endpoints.
+	 *
+	 * @param q The query interval for which intersections are to be found
+	 * @param visitor Visitor that receives every intersecting interval
+	 */
+	public void findIntersectingIntervals(Interval q, IntervalVisitor visitor) {
+		if (size != 0) {
+			visit(0, q.leftEndPoint, q.rightEndPoint, visitor);
+		}
+	}
+
+	/**
+	 * Visits the intersecting intervals in the subtree rooted at node t, following right
+	 * children in a loop and left children recursively, so that nothing is allocated.
+	 */
+	private void visit(int t, int ql, int qr, IntervalVisitor visitor) {
+		while (rightChildren[t] != -1) {
+			float split = splitValues[t];
+			int from = starts[t], to = starts[t+1];
+			if (split >= ql && split <= qr) {
+				for (int i=from; i < to; i++) {
+					visitor.visit(leftSorted[i]);
+				}
+				visit(t+1, ql, qr, visitor);
+				t = rightChildren[t];
+			} else if (split < ql) {
+				for (int i=to-1; i >= from && rightEndPoints[i] >= ql; i--) {
+					visitor.visit(rightSorted[i]);
+				}
+				t = rightChildren[t];
+			} else {
+				for (int i=from; i < to && leftEndPoints[i] <= qr; i++) {
+					visitor.visit(leftSorted[i]);
+				}
+				t = t+1;
+			}
+		}
+	}
+
+	/**
+	 * Counts the intervals in this tree that intersect with a given interval, without
+	 * visiting them. The intersecting intervals at a node are a run at one end of its
+	 * slice, whose length is found by binary search on the endpoints.
+	 *
+	 * @param q The query interval for which intersections are to be counted
+	 * @return Number of intersecting intervals
+	 */
+	public int countIntersectingIntervals(Interval q) {
+		return size == 0 ? 0 : count(0, q.leftEndPoint, q.rightEndPoint);
+	}
+
+	/**
+	 * Counts the intersecting intervals in the subtree rooted at node t, following right
+	 * children in a loop and left children recursively.
+	 */
+	private int count(int t, int ql, int qr) {
+		int count = 0;
+		while (rightChildren[t] != -1) {
+			float split = splitValues[t];
+			int from = starts[t], to = starts[t+1];
+			if (split >= ql && split <= qr) {
+				count += to - from + count(t+1, ql, qr);
+				t = rightChildren[t];
+			} else if (split < ql) {
+				// right endpoints at least ql, at the end of the slice
+				int lo = from, hi = to;
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (rightEndPoints[mid] >= ql) {
+						hi = mid;
+					} else {
+						lo = mid + 1;
+					}
+				}
+				count += to - lo;
+				t = rightChildren[t];
+			} else {
+				// left endpoints at most qr, at the start of the slice
+				int lo = from, hi = to;
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (leftEndPoints[mid] <= qr) {
+						lo = mid + 1;
+					} else {
+						hi = mid;
+					}
+				}
+				count += lo - from;
+				t = t+1;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of nodes in this tree.
+	 *
+	 * @return Number of nodes
+	 */
+	public int size() {
+		return size;
+	}
+}
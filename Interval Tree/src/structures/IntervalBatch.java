@@ -0,0 +1,137 @@
+package structures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Answers many intersection queries on one interval index at once, spread over the
+ * threads of a fork/join pool. The index is only read, so the threads share it without
+ * locking. Queries can first be put in order of left endpoint, so that queries answered
+ * one after another by the same thread walk down much the same paths of the tree and
+ * find its nodes still in the cache; answers are always given in the order the queries
+ * were given in.
+ *
+ * @author runb-cs112
+ */
+public class IntervalBatch {
+
+	/**
+	 * Largest number of queries a task answers itself rather than splitting in two
+	 */
+	static final int THRESHOLD = 256;
+
+	/**
+	 * Gets the intersecting intervals of every query.
+	 *
+	 * @param index Index to query, which must not change meanwhile
+	 * @param queries Query intervals
+	 * @param pool Pool whose threads answer the queries
+	 * @param sort If true, queries are answered in order of left endpoint
+	 * @return Array list of the intersecting intervals of each query, in query order
+	 */
+	public static ArrayList<ArrayList<Interval>> findIntersectingIntervals(
+			IntervalIndex index, Interval[] queries, ForkJoinPool pool, boolean sort) {
+		ArrayList<Interval>[] results = newLists(queries.length);
+		pool.invoke(new QueryTask(index, queries, order(queries, sort), 0, queries.length, results, null));
+		return new ArrayList<ArrayList<Interval>>(Arrays.asList(results));
+	}
+
+	/**
+	 * Counts the intersecting intervals of every query.
+	 *
+	 * @param index Index to query, which must not change meanwhile
+	 * @param queries Query intervals
+	 * @param pool Pool whose threads answer the queries
+	 * @param sort If true, queries are answered in order of left endpoint
+	 * @return Number of intersecting intervals of each query, in query order
+	 */
+	public static int[] countIntersectingIntervals(
+			IntervalIndex index, Interval[] queries, ForkJoinPool pool, boolean sort) {
+		int[] counts = new int[queries.length];
+		pool.invoke(new QueryTask(index, queries, order(queries, sort), 0, queries.length, null, counts));
+		return counts;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static ArrayList<Interval>[] newLists(int n) {
+		return new ArrayList[n];
+	}
+
+	/**
+	 * Returns the order in which to answer queries: by left endpoint, ties in query
+	 * order, or just query order if not sorting.
+	 */
+	private static int[] order(Interval[] queries, boolean sort) {
+		int[] order = new int[queries.length];
+		if (!sort) {
+			for (int i=0; i < order.length; i++) {
+				order[i] = i;
+			}
+			return order;
+		}
+		// as in IntervalTree.sortIntervals, endpoint in the high half, position in the low
+		long[] keys = new long[queries.length];
+		for (int i=0; i < keys.length; i++) {
+			keys[i] = ((long)queries[i].leftEndPoint << 32) | i;
+		}
+		Arrays.sort(keys);
+		for (int i=0; i < order.length; i++) {
+			order[i] = (int)keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Answers the queries in a range of the answering order, splitting the range in two
+	 * halves for two subtasks while it is larger than THRESHOLD.
+	 */
+	static class QueryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final IntervalIndex index;
+		final Interval[] queries;
+		final int[] order;
+		final int from, to;
+
+		/**
+		 * Receives the intersecting intervals of each query, or null to count only
+		 */
+		final ArrayList<Interval>[] results;
+
+		/**
+		 * Receives the count of each query, when results is null
+		 */
+		final int[] counts;
+
+		QueryTask(IntervalIndex index, Interval[] queries, int[] order, int from, int to,
+				ArrayList<Interval>[] results, int[] counts) {
+			this.index = index;
+			this.queries = queries;
+			this.order = order;
+			this.from = from;
+			this.to = to;
+			this.results = results;
+			this.counts = counts;
+		}
+
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new QueryTask(index, queries, order, from, mid, results, counts),
+						new QueryTask(index, queries, order, mid, to, results, counts));
+				return;
+			}
+			for (int i=from; i < to; i++) {
+				int q = order[i];
+				if (results != null) {
+					results[q] = index.findIntersectingIntervals(queries[q]);
+				} else {
+					counts[q] = index.countIntersectingIntervals(queries[q]);
+				}
+			}
+		}
+	}
+}
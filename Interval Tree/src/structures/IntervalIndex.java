@@ -0,0 +1,38 @@
+package structures;
+
+import java.util.ArrayList;
+
+/**
+ * A set of intervals that can be queried for the ones that intersect a given interval.
+ * Implementations are safe to query from several threads at once, as long as nothing
+ * changes them meanwhile.
+ * 
+ * @author runb-cs112
+ */
+public interface IntervalIndex {
+	
+	/**
+	 * Gets all intervals in this set that intersect with a given interval.
+	 * 
+	 * @param q The query interval for which intersections are to be found
+	 * @return Array list of all intersecting intervals; size is 0 if there are no intersections
+	 */
+	ArrayList<Interval> findIntersectingIntervals(Interval q);
+	
+	/**
+	 * Finds all intervals in this set that intersect with a given interval, and hands
+	 * each to a visitor as soon as it is found.
+	 * 
+	 * @param q The query interval for which intersections are to be found
+	 * @param visitor Visitor that receives every intersecting interval
+	 */
+	void findIntersectingIntervals(Interval q, IntervalVisitor visitor);
+	
+	/**
+	 * Counts the intervals in this set that intersect with a given interval.
+	 * 
+	 * @param q The query interval for which intersections are to be counted
+	 * @return Number of intersecting intervals
+	 */
+	int countIntersectingIntervals(Interval q);
+}
@@ -1,13 +1,20 @@
 package structures;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Encapsulates an interval tree.
  * 
+ * Split values are floats, which hold every int endpoint exactly only up to 2^24
+ * (16,777,216). Past that, a split value and the endpoints it is compared with are
+ * rounded, and queries can return intervals that end or start next to the query
+ * without intersecting it, and may leave out intervals that touch it at one end. Callers
+ * with larger endpoints should check each result with Interval.intersects.
+ * 
  * @author runb-cs112
  */
-public class IntervalTree {
+public class IntervalTree implements IntervalIndex {
 	
 	/**
 	 * The root of the interval tree
@@ -58,43 +65,29 @@ public class IntervalTree {
 	/**
 	 * Sorts a set of intervals in place, according to left or right endpoints.  
 	 * At the end of the method, the parameter array list is a sorted list. 
+	 * The sort is stable, so intervals with equal endpoints keep their order.
 	 * 
 	 * @param intervals Array list of intervals to be sorted.
 	 * @param lr If 'l', then sort is on left endpoints; if 'r', sort is on right endpoints
 	 */
 	public static void sortIntervals(ArrayList<Interval> intervals, char lr) {
 		// COMPLETE THIS METHOD
-		if(lr == 'r')
-			sortRight(intervals);
-		else
-			sortLeft(intervals);
-	}
-	
-	private static void sortRight(ArrayList<Interval> list){
-		for(int x = 1; x < list.size();x++){
-			for(int y = x; y > 0; y--){
-				if(list.get(y-1).rightEndPoint > list.get(y).rightEndPoint){
-					Interval temp = list.get(y);
-					list.set(y, list.get(y-1));
-					list.set(y-1, temp );
-				}
-				else 
-					break;
-			}
+		// each key holds the endpoint in its high half and the position in its low half,
+		// so sorting the keys as plain longs orders by endpoint, then by position
+		int n = intervals.size();
+		long[] keys = new long[n];
+		for (int i=0; i < n; i++) {
+			Interval iv = intervals.get(i);
+			int endPoint = lr == 'r' ? iv.rightEndPoint : iv.leftEndPoint;
+			keys[i] = ((long)endPoint << 32) | i;
 		}
-	}
-	
-	private static void sortLeft(ArrayList<Interval> list){
-		for(int x = 1; x < list.size();x++){
-			for(int y = x; y > 0; y--){
-				if(list.get(y-1).leftEndPoint > list.get(y).leftEndPoint){
-					Interval temp = list.get(y);
-					list.set(y, list.get(y-1));
-					list.set(y-1, temp );
-				}
-				else 
-					break;
-			}
+		Arrays.sort(keys);
+		Interval[] sorted = new Interval[n];
+		for (int i=0; i < n; i++) {
+			sorted[i] = intervals.get((int)keys[i]);
+		}
+		for (int i=0; i < n; i++) {
+			intervals.set(i, sorted[i]);
 		}
 	}
 	
@@ -108,25 +101,47 @@ public class IntervalTree {
 	 */
 	public static ArrayList<Integer> getSortedEndPoints(ArrayList<Interval> leftSortedIntervals, ArrayList<Interval> rightSortedIntervals) {
 		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE PROGRAM COMPILE
-		ArrayList<Integer> list = new ArrayList<Integer>();
-		for(Interval x: leftSortedIntervals){
-			if(!list.contains(x.leftEndPoint)){
-				list.add(x.leftEndPoint);
-			}
+		int[] endPoints = sortedEndPoints(leftSortedIntervals, rightSortedIntervals);
+		ArrayList<Integer> list = new ArrayList<Integer>(endPoints.length);
+		for (int x: endPoints) {
+			list.add(x);
+		}
+		return list;
+	}
+	
+	/**
+	 * Same as getSortedEndPoints, but returns the end points in an array. Both lists
+	 * are already sorted, so their end points are merged in one pass, dropping 
+	 * duplicates as they come.
+	 * 
+	 * @param leftSortedIntervals Array list of intervals sorted according to left endpoints
+	 * @param rightSortedIntervals Array list of intervals sorted according to right endpoints
+	 * @return Sorted array of all endpoints without duplicates
+	 */
+	public static int[] sortedEndPoints(ArrayList<Interval> leftSortedIntervals, ArrayList<Interval> rightSortedIntervals) {
+		int nl = leftSortedIntervals.size(), nr = rightSortedIntervals.size();
+		int[] lefts = new int[nl];
+		for (int i=0; i < nl; i++) {
+			lefts[i] = leftSortedIntervals.get(i).leftEndPoint;
 		}
-		for(Interval x: rightSortedIntervals){
-			if(!list.contains(x.rightEndPoint)){
-				int i = 0;
-				while(i < list.size() && list.get(i).intValue() < x.rightEndPoint)
-					i++;
-				if(i == list.size())
-					list.add(x.rightEndPoint);
-				else
-					list.add(i, x.rightEndPoint);
+		int[] rights = new int[nr];
+		for (int i=0; i < nr; i++) {
+			rights[i] = rightSortedIntervals.get(i).rightEndPoint;
+		}
+		int[] merged = new int[nl + nr];
+		int i = 0, j = 0, n = 0;
+		while (i < nl || j < nr) {
+			int x;
+			if (j == nr || (i < nl && lefts[i] <= rights[j])) {
+				x = lefts[i++];
+			} else {
+				x = rights[j++];
+			}
+			if (n == 0 || merged[n-1] != x) {
+				merged[n++] = x;
 			}
 		}
-		return list;
+		return Arrays.copyOf(merged, n);
 	}
 	
 	/**
@@ -138,49 +153,45 @@ public class IntervalTree {
 	 */
 	public static IntervalTreeNode buildTreeNodes(ArrayList<Integer> endPoints) {
 		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE PROGRAM COMPILE
-		Queue<IntervalTreeNode> q = new Queue<IntervalTreeNode>();
-		for(Integer x: endPoints){
-			IntervalTreeNode nodes = new IntervalTreeNode(x,x,x);
-			nodes.leftIntervals = new ArrayList<Interval>();
-			nodes.rightIntervals = new ArrayList<Interval>();
-			q.enqueue(nodes);
+		int[] points = new int[endPoints.size()];
+		for (int i=0; i < points.length; i++) {
+			points[i] = endPoints.get(i);
 		}
-				
-		int s = q.size;
-		if(s == 1)
-		{
-			IntervalTreeNode temp = q.dequeue();
-			return temp;
+		return buildTreeNodes(points);
+	}
+	
+	/**
+	 * Same as buildTreeNodes(ArrayList), for end points in an array. Nodes are paired
+	 * up level by level, from the leaves up; when a level has an odd number of nodes,
+	 * the last one moves up to the end of the next level unpaired. Leaves start out
+	 * with no interval lists, which mapIntervalsToTree creates when it needs them.
+	 * 
+	 * @param endPoints Sorted array of end points without duplicates
+	 * @return Root of the tree structure
+	 */
+	public static IntervalTreeNode buildTreeNodes(int[] endPoints) {
+		IntervalTreeNode[] level = new IntervalTreeNode[endPoints.length];
+		for (int i=0; i < endPoints.length; i++) {
+			level[i] = new IntervalTreeNode(endPoints[i], endPoints[i], endPoints[i]);
 		}
-		
-		while(q.size() > 1){
-			int temp = q.size();
-			while(temp > 1){
-				IntervalTreeNode n1 = q.dequeue();
-				IntervalTreeNode n2 = q.dequeue();
-//				float v1 = findLeft(n1);
-				float v1 = n1.maxSplitValue;
-//				System.out.println("v1 =" + v1);
-//				float v2 = findRight(n2);
-				float v2 = n2.minSplitValue;
-//				System.out.println("v2 =" + v2);
-				float sp = (v1+v2)/2;
-//				System.out.println("sp =" + sp);
+		int size = level.length;
+		while (size > 1) {
+			int next = 0;
+			for (int i=0; i+1 < size; i += 2) {
+				IntervalTreeNode n1 = level[i];
+				IntervalTreeNode n2 = level[i+1];
+				float sp = (n1.maxSplitValue + n2.minSplitValue)/2;
 				IntervalTreeNode n = new IntervalTreeNode(sp, n1.minSplitValue, n2.maxSplitValue);
-//				n.leftIntervals = new ArrayList<Interval>();
-//				n.rightIntervals = new ArrayList<Interval>();
 				n.leftChild = n1;
 				n.rightChild = n2;
-				q.enqueue(n);
-				temp -= 2;
+				level[next++] = n;
 			}
-			
-			if(temp == 1){
-				q.enqueue(q.dequeue());
+			if (size % 2 == 1) {
+				level[next++] = level[size-1];
 			}
+			size = next;
 		}
-		return q.dequeue();
+		return size == 0 ? null : level[0];
 	}
 	
 //	private static float findLeft(IntervalTreeNode r){
@@ -235,53 +246,119 @@ public class IntervalTree {
 	 */
 	public ArrayList<Interval> findIntersectingIntervals(Interval q) {
 		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE PROGRAM COMPILE
-		return findIntersectingIntervals(this.root, q);
+		final ArrayList<Interval> resultList = new ArrayList<Interval>();
+		findIntersectingIntervals(q, new IntervalVisitor() {
+			public void visit(Interval interval) {
+				resultList.add(interval);
+			}
+		});
+		return resultList;
 	}
 	
-	private ArrayList<Interval> findIntersectingIntervals(IntervalTreeNode root, Interval q){
-		ArrayList<Interval> resultList = new ArrayList<Interval>();
-		IntervalTreeNode t = root;
-		float splitval = t.splitValue;
+	/**
+	 * Finds all intervals in this interval tree that intersect with a given interval, and
+	 * hands each to a visitor as soon as it is found, in the same order as 
+	 * findIntersectingIntervals(Interval) lists them. Nothing is allocated.
+	 * 
+	 * @param q The query interval for which intersections are to be found
+	 * @param visitor Visitor that receives every intersecting interval
+	 */
+	public void findIntersectingIntervals(Interval q, IntervalVisitor visitor) {
+		if (root != null) {
+			findIntersectingIntervals(root, q, visitor);
+		}
+	}
+	
+	private void findIntersectingIntervals(IntervalTreeNode t, Interval q, IntervalVisitor visitor) {
+		if (t.leftChild == null && t.rightChild == null) {
+			return;
+		}
 		ArrayList<Interval> leftList = t.leftIntervals;
 		ArrayList<Interval> rightList = t.rightIntervals;
-		IntervalTreeNode lsub = t.leftChild;
-		IntervalTreeNode rsub = t.rightChild;
-		
-		if((t.leftChild == null && t.rightChild == null))
-			return resultList;
-		if(q.contains(splitval)){
-			if(leftList != null)
-				resultList.addAll(leftList);
-//			t.matchLeft(q, resultList);
-//			t.matchRight(q, resultList);
-			resultList.addAll(findIntersectingIntervals(lsub, q));
-			resultList.addAll(findIntersectingIntervals(rsub, q));
-		}
-		else if(splitval < q.leftEndPoint){
-//			t.matchRight(q, resultList);
-			if(rightList != null){
-				int i = rightList.size()-1;
-				while(i >= 0 && rightList.get(i).intersects(q)){
-					resultList.add(rightList.get(i));
-					i--;
+		if (q.contains(t.splitValue)) {
+			if (leftList != null) {
+				for (int i=0; i < leftList.size(); i++) {
+					visitor.visit(leftList.get(i));
+				}
+			}
+			findIntersectingIntervals(t.leftChild, q, visitor);
+			findIntersectingIntervals(t.rightChild, q, visitor);
+		} else if (t.splitValue < q.leftEndPoint) {
+			if (rightList != null) {
+				for (int i=rightList.size()-1; i >= 0 && rightList.get(i).intersects(q); i--) {
+					visitor.visit(rightList.get(i));
 				}
 			}
-			resultList.addAll(findIntersectingIntervals(rsub, q));
-		}	
-		else if(splitval > q.rightEndPoint){
-//			t.matchLeft(q, resultList);
-			if(leftList != null){
-				int i = 0;
-				while(i < leftList.size() && leftList.get(i).intersects(q)){
-					resultList.add(leftList.get(i));
-					i++;
+			findIntersectingIntervals(t.rightChild, q, visitor);
+		} else {
+			if (leftList != null) {
+				for (int i=0; i < leftList.size() && leftList.get(i).intersects(q); i++) {
+					visitor.visit(leftList.get(i));
 				}
 			}
-			resultList.addAll(findIntersectingIntervals(lsub, q));
+			findIntersectingIntervals(t.leftChild, q, visitor);
 		}
-		
-		return resultList;
+	}
+	
+	/**
+	 * Counts the intervals in this interval tree that intersect with a given interval,
+	 * without visiting them. Every interval at a node contains the node's split value, 
+	 * so the ones that intersect the query form a run at one end of a sorted list, and
+	 * the length of the run is found by binary search.
+	 * 
+	 * @param q The query interval for which intersections are to be counted
+	 * @return Number of intersecting intervals, the size of the list that 
+	 *         findIntersectingIntervals(Interval) returns
+	 */
+	public int countIntersectingIntervals(Interval q) {
+		return countIntersectingIntervals(root, q);
+	}
+	
+	private static int countIntersectingIntervals(IntervalTreeNode t, Interval q) {
+		// the right subtree is followed in the loop, and only the left one recursively
+		int count = 0;
+		while (t != null && t.leftChild != null) {
+			ArrayList<Interval> leftList = t.leftIntervals;
+			ArrayList<Interval> rightList = t.rightIntervals;
+			if (q.contains(t.splitValue)) {
+				if (leftList != null) {
+					count += leftList.size();
+				}
+				count += countIntersectingIntervals(t.leftChild, q);
+				t = t.rightChild;
+			} else if (t.splitValue < q.leftEndPoint) {
+				if (rightList != null) {
+					// right endpoints at least q.leftEndPoint, at the end of the list
+					int lo = 0, hi = rightList.size();
+					while (lo < hi) {
+						int mid = (lo + hi) >>> 1;
+						if (rightList.get(mid).rightEndPoint >= q.leftEndPoint) {
+							hi = mid;
+						} else {
+							lo = mid + 1;
+						}
+					}
+					count += rightList.size() - lo;
+				}
+				t = t.rightChild;
+			} else {
+				if (leftList != null) {
+					// left endpoints at most q.rightEndPoint, at the start of the list
+					int lo = 0, hi = leftList.size();
+					while (lo < hi) {
+						int mid = (lo + hi) >>> 1;
+						if (leftList.get(mid).leftEndPoint <= q.rightEndPoint) {
+							lo = mid + 1;
+						} else {
+							hi = mid;
+						}
+					}
+					count += lo;
+				}
+				t = t.leftChild;
+			}
+		}
+		return count;
 	}
 
 }
@@ -0,0 +1,17 @@
+package structures;
+
+/**
+ * Receives the intervals found by a query one at a time, as they are found, so that
+ * the query does not have to collect them in a list.
+ * 
+ * @author runb-cs112
+ */
+public interface IntervalVisitor {
+	
+	/**
+	 * Called once for every interval found.
+	 * 
+	 * @param interval Interval that intersects the query
+	 */
+	void visit(Interval interval);
+}